@@ -0,0 +1,89 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the time from asking to join a student device's network to the connection being handed
+ * to a WifiConnectionThread. Armed when the association starts, so a device whose group never
+ * reports connected cannot hold up the queue.
+ * <p> Either the deadline expires or the connection thread claims the attempt with disarm(), never
+ * both, so exactly one of them finishes the registration. </p>
+ */
+public class AssociationDeadline {
+
+    public interface Listener {
+        /**
+         * Called on the deadline's own thread when an attempt was not claimed in time
+         */
+        void onExpired(String deviceAddress);
+    }
+
+    private final Listener mListener;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, AssociationDeadline.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private String mDeviceAddress = null;
+    private long mExpiresAt = 0;
+    private ScheduledFuture<?> mExpiry = null;
+
+    public AssociationDeadline(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start the deadline for a device, replacing any earlier one
+     */
+    public synchronized void arm(final String deviceAddress, long timeoutMillis) {
+        if (mExpiry != null) mExpiry.cancel(false);
+
+        mDeviceAddress = deviceAddress;
+        mExpiresAt = System.currentTimeMillis() + timeoutMillis;
+        mExpiry = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (claim(deviceAddress)) mListener.onExpired(deviceAddress);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claim the attempt on a device for the caller, stopping its deadline
+     *
+     * @return milliseconds left before the deadline, or -1 if it has already expired or was not
+     * armed for this device
+     */
+    public synchronized long disarm(String deviceAddress) {
+        long remaining = mExpiresAt - System.currentTimeMillis();
+        if (!claim(deviceAddress)) return -1;
+
+        mExpiry.cancel(false);
+        mExpiry = null;
+        return Math.max(remaining, 0);
+    }
+
+    /**
+     * Stop any deadline without calling the listener, and release the thread
+     */
+    public synchronized void shutdown() {
+        mDeviceAddress = null;
+        mExecutor.shutdownNow();
+    }
+
+    private synchronized boolean claim(String deviceAddress) {
+        if (mDeviceAddress == null || !mDeviceAddress.equals(deviceAddress)) return false;
+
+        mDeviceAddress = null;
+        return true;
+    }
+}
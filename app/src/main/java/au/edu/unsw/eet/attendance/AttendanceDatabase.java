@@ -0,0 +1,171 @@
+package au.edu.unsw.eet.attendance;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * Process-wide helper for the attendance database. The underlying connection is opened once and
+ * shared by the instructor and student services as well as the activity, so callers should not
+ * close the database they obtain from it.
+ */
+public class AttendanceDatabase extends SQLiteOpenHelper {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = AttendanceDatabase.class.getSimpleName();
+
+    public static final String DATABASE_NAME = "attendance";
+
+    /**
+     * Schema version, increment and add a step to onUpgrade() whenever the schema changes
+     */
+    public static final int DATABASE_VERSION = 3;
+
+    public static final String INSTRUCTOR_TABLE = "instructor_attendance";
+    public static final String STUDENT_TABLE = "student_attendance";
+
+    /**
+     * Store the student's deviceId, student ID, random number and current timestamp
+     */
+    static final String CREATE_INSTRUCTOR_TABLE = "CREATE TABLE IF NOT EXISTS " + INSTRUCTOR_TABLE + "(" +
+            "instructor_id VARCHAR, " +
+            "student_device VARCHAR, " +
+            "student_id VARCHAR, " +
+            "rand INT, " +
+            "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP);";
+
+    /**
+     * Store the random number received and the current timestamp. synced is set once the
+     * instructor has confirmed it holds the record.
+     */
+    static final String CREATE_STUDENT_TABLE = "CREATE TABLE IF NOT EXISTS " + STUDENT_TABLE + "(" +
+            "student_id VARCHAR, " +
+            "instructor_id VARCHAR, " +
+            "rand INT, " +
+            "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP, " +
+            "synced INT DEFAULT 0);";
+
+    static final String ADD_STUDENT_SYNCED_COLUMN = "ALTER TABLE " + STUDENT_TABLE +
+            " ADD COLUMN synced INT DEFAULT 0;";
+
+    /**
+     * Indexes for the per-user history queries. SQLite appends the ROWID to every index entry, so
+     * these are keyed on (instructor_id, ROWID) and (student_id, ROWID) and satisfy
+     * "WHERE ... = ? ORDER BY ROWID DESC" without a scan or a sort.
+     */
+    static final String CREATE_INSTRUCTOR_HISTORY_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            INSTRUCTOR_TABLE + "_instructor_id ON " + INSTRUCTOR_TABLE + "(instructor_id);";
+    static final String CREATE_STUDENT_HISTORY_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            STUDENT_TABLE + "_student_id ON " + STUDENT_TABLE + "(student_id);";
+
+    /**
+     * Index for a student's unconfirmed handshakes, see SELECT_STUDENT_UNCONFIRMED
+     */
+    static final String CREATE_STUDENT_BACKLOG_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            STUDENT_TABLE + "_backlog ON " + STUDENT_TABLE + "(student_id, synced);";
+
+    /**
+     * Parameterised inserts, compiled once with SQLiteDatabase.compileStatement() and re-bound for
+     * every record. Records carry the time of their handshake in seconds since the epoch, stored
+     * in the same format as CURRENT_TIMESTAMP, as they may be written some time later.
+     */
+    static final String INSERT_INSTRUCTOR_ATTENDANCE = "INSERT INTO " + INSTRUCTOR_TABLE +
+            " (instructor_id, student_device, student_id, rand, timestamp)" +
+            " VALUES (?, ?, ?, ?, datetime(?, 'unixepoch'));";
+    static final String INSERT_STUDENT_ATTENDANCE = "INSERT INTO " + STUDENT_TABLE +
+            " (student_id, instructor_id, rand, timestamp) VALUES (?, ?, ?, datetime(?, 'unixepoch'));";
+
+    /**
+     * Student devices an instructor has registered since a time given in seconds since the epoch,
+     * so that a restarted InstructorService does not register them again
+     */
+    static final String SELECT_REGISTERED_DEVICES = "SELECT DISTINCT student_device FROM " + INSTRUCTOR_TABLE +
+            " WHERE instructor_id = ? AND timestamp >= datetime(?, 'unixepoch');";
+
+    /**
+     * A student's handshakes that their instructors have not confirmed, oldest first, with the
+     * timestamp in seconds since the epoch. Loaded once into a BacklogSnapshot when the student
+     * server starts.
+     */
+    static final String SELECT_STUDENT_UNCONFIRMED = "SELECT instructor_id, rand, strftime('%s', timestamp) FROM " +
+            STUDENT_TABLE + " WHERE student_id = ? AND synced = 0 ORDER BY ROWID;";
+
+    /**
+     * Mark a student's handshake as confirmed by the instructor
+     */
+    static final String UPDATE_STUDENT_SYNCED = "UPDATE " + STUDENT_TABLE + " SET synced = 1" +
+            " WHERE instructor_id = ? AND student_id = ? AND rand = ?;";
+
+    /**
+     * Whether an instructor already holds a student's handshake, so that a record recovered from
+     * the student's backlog is not stored twice
+     */
+    static final String SELECT_INSTRUCTOR_RECORD = "SELECT 1 FROM " + INSTRUCTOR_TABLE +
+            " WHERE instructor_id = ? AND student_id = ? AND rand = ? LIMIT 1;";
+
+    private static AttendanceDatabase sInstance;
+
+    /**
+     * Obtain the shared helper, creating it on first use
+     *
+     * @param context any context, only its application context is retained
+     * @return the process-wide AttendanceDatabase
+     */
+    public static synchronized AttendanceDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AttendanceDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AttendanceDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Databases written by earlier builds were created without a user_version, so they also land
+     * here. The statements must therefore tolerate tables that already exist.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        Log.i(TAG, "onCreate() version " + DATABASE_VERSION);
+
+        db.execSQL(CREATE_INSTRUCTOR_TABLE);
+        db.execSQL(CREATE_STUDENT_TABLE);
+
+        // A student table left by an earlier build lacks the synced column
+        if (!hasColumn(db, STUDENT_TABLE, "synced")) db.execSQL(ADD_STUDENT_SYNCED_COLUMN);
+
+        db.execSQL(CREATE_INSTRUCTOR_HISTORY_INDEX);
+        db.execSQL(CREATE_STUDENT_HISTORY_INDEX);
+        db.execSQL(CREATE_STUDENT_BACKLOG_INDEX);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.i(TAG, "onUpgrade() " + oldVersion + " -> " + newVersion);
+
+        // Each case upgrades by one version and falls through to the next
+        switch (oldVersion) {
+            case 1:
+                db.execSQL(CREATE_INSTRUCTOR_HISTORY_INDEX);
+                db.execSQL(CREATE_STUDENT_HISTORY_INDEX);
+            case 2:
+                db.execSQL(ADD_STUDENT_SYNCED_COLUMN);
+                db.execSQL(CREATE_STUDENT_BACKLOG_INDEX);
+        }
+    }
+
+    static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ");", null);
+        try {
+            while (c.moveToNext()) {
+                if (column.equals(c.getString(c.getColumnIndex("name")))) return true;
+            }
+            return false;
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package au.edu.unsw.eet.attendance;
+
+/**
+ * Structured notification of progress through a handshake, carrying enough of the record that
+ * subscribers can act on it without querying the database.
+ */
+public class AttendanceEvent {
+
+    public enum Phase {
+        /**
+         * Messages exchanged, the record has not been stored yet
+         */
+        HANDSHAKE,
+
+        /**
+         * Record committed to the database, mTable and mRowId identify it
+         */
+        RECORDED,
+
+        /**
+         * Handshake finished without producing a record
+         */
+        FAILED
+    }
+
+    final Phase mPhase;
+    final String mInstructorId;
+    final String mStudentId;
+    final int mNonce;
+
+    /**
+     * Time of the handshake in milliseconds since the epoch
+     */
+    final long mTimestamp;
+
+    /**
+     * Table and ROWID of the stored record, only set for RECORDED events
+     */
+    final String mTable;
+    final long mRowId;
+
+    public AttendanceEvent(Phase phase, String instructorId, String studentId, int nonce, long timestamp,
+                           String table, long rowId) {
+        mPhase = phase;
+        mInstructorId = instructorId;
+        mStudentId = studentId;
+        mNonce = nonce;
+        mTimestamp = timestamp;
+        mTable = table;
+        mRowId = rowId;
+    }
+
+    public AttendanceEvent(Phase phase, String instructorId, String studentId, int nonce, long timestamp) {
+        this(phase, instructorId, studentId, nonce, timestamp, null, -1);
+    }
+
+    @Override
+    public String toString() {
+        return mPhase + " " + mInstructorId + ":" + mStudentId + ":" + mNonce + " " + mTable + "#" + mRowId;
+    }
+}
@@ -0,0 +1,103 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process channel for AttendanceEvents. Events posted from any thread are collected for one
+ * frame interval and then delivered together, in the order they were posted, to every subscriber
+ * on the Scheduler's thread (the main thread in the app).
+ */
+public class AttendanceEventBus {
+    static final long FRAME_INTERVAL_MS = 16;
+
+    public interface Subscriber {
+        /**
+         * @param events events posted since the last delivery, oldest first. Only valid for the
+         *               duration of the call.
+         */
+        void onAttendanceEvents(List<AttendanceEvent> events);
+    }
+
+    /**
+     * Runs deliveries, one at a time on a single thread, see MainThreadScheduler
+     */
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    private static AttendanceEventBus sInstance;
+
+    /**
+     * @return the process-wide bus, delivering on the main thread
+     */
+    public static synchronized AttendanceEventBus getInstance() {
+        if (sInstance == null) {
+            sInstance = new AttendanceEventBus(new MainThreadScheduler(), FRAME_INTERVAL_MS);
+        }
+        return sInstance;
+    }
+
+    private final Scheduler mScheduler;
+    private final long mFrameIntervalMillis;
+    private final CopyOnWriteArrayList<Subscriber> mSubscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    /**
+     * Events are posted into mPending and delivered from mDelivering, the two are swapped for
+     * every delivery so that neither is reallocated
+     */
+    private final Object mLock = new Object();
+    private ArrayList<AttendanceEvent> mPending = new ArrayList<AttendanceEvent>();
+    private ArrayList<AttendanceEvent> mDelivering = new ArrayList<AttendanceEvent>();
+    private boolean mDeliveryScheduled = false;
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    public AttendanceEventBus(Scheduler scheduler, long frameIntervalMillis) {
+        mScheduler = scheduler;
+        mFrameIntervalMillis = frameIntervalMillis;
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        mSubscribers.addIfAbsent(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        mSubscribers.remove(subscriber);
+    }
+
+    /**
+     * Queue an event for the next delivery. Never blocks on subscribers.
+     */
+    public void post(AttendanceEvent event) {
+        synchronized (mLock) {
+            mPending.add(event);
+            if (mDeliveryScheduled) return;
+            mDeliveryScheduled = true;
+        }
+        mScheduler.schedule(mDeliver, mFrameIntervalMillis);
+    }
+
+    private void deliver() {
+        ArrayList<AttendanceEvent> events;
+        synchronized (mLock) {
+            events = mPending;
+            mPending = mDelivering;
+            mDelivering = events;
+            mDeliveryScheduled = false;
+        }
+
+        List<AttendanceEvent> view = Collections.unmodifiableList(events);
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.onAttendanceEvents(view);
+        }
+        events.clear();
+    }
+}
@@ -0,0 +1,36 @@
+package au.edu.unsw.eet.attendance;
+
+/**
+ * A single attendance record as exchanged during a handshake, independent of the table it is
+ * eventually stored in.
+ */
+public class AttendanceRecord {
+    final String mInstructorId;
+    final String mStudentDevice;
+    final String mStudentId;
+    final int mRand;
+
+    /**
+     * Time of the handshake in milliseconds since the epoch, so that queued records keep the time
+     * they were taken rather than the time they were written
+     */
+    final long mTimestamp;
+
+    /**
+     * ROWID of the record once it has been written, -1 until then
+     */
+    long mRowId = -1;
+
+    public AttendanceRecord(String instructorId, String studentDevice, String studentId, int rand, long timestamp) {
+        mInstructorId = instructorId;
+        mStudentDevice = studentDevice;
+        mStudentId = studentId;
+        mRand = rand;
+        mTimestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return mInstructorId + "," + mStudentDevice + "," + mStudentId + "," + mRand + "," + mTimestamp;
+    }
+}
@@ -0,0 +1,94 @@
+package au.edu.unsw.eet.attendance;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Writes batches of instructor attendance records to the database, one transaction per batch.
+ * Intended to be driven by a WriteBehindQueue so that handshakes never wait on disk I/O, with
+ * commit() for the records a handshake must know are written before it confirms them.
+ */
+public class AttendanceWriter implements WriteBehindQueue.Sink<AttendanceRecord> {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = AttendanceWriter.class.getSimpleName();
+
+    /**
+     * Notified on the writer thread once a batch has been committed, every record's mRowId is set
+     */
+    public interface Listener {
+        void onRecordsWritten(List<AttendanceRecord> batch);
+    }
+
+    private final AttendanceDatabase mDatabase;
+    private final Listener mListener;
+
+    /**
+     * Precompiled insert into instructor_attendance, reused for the life of the writer
+     */
+    private SQLiteStatement mInsertStatement;
+
+    public AttendanceWriter(AttendanceDatabase database, Listener listener) {
+        mDatabase = database;
+        mListener = listener;
+    }
+
+    @Override
+    public void write(List<AttendanceRecord> batch) {
+        commit(batch);
+    }
+
+    /**
+     * Write a batch on the caller's thread
+     *
+     * @return true if the batch was committed, false if it was rolled back
+     */
+    public boolean commit(List<AttendanceRecord> batch) {
+        long start = RegistrationMetrics.start();
+        synchronized (mDatabase) {
+            SQLiteDatabase database = mDatabase.getWritableDatabase();
+            if (mInsertStatement == null) {
+                mInsertStatement = database.compileStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+            }
+
+            database.beginTransaction();
+            try {
+                for (AttendanceRecord record : batch) {
+                    mInsertStatement.bindString(1, record.mInstructorId);
+                    mInsertStatement.bindString(2, record.mStudentDevice);
+                    mInsertStatement.bindString(3, record.mStudentId);
+                    mInsertStatement.bindLong(4, record.mRand);
+                    mInsertStatement.bindLong(5, record.mTimestamp / 1000);
+                    record.mRowId = mInsertStatement.executeInsert();
+                }
+                database.setTransactionSuccessful();
+            } catch (SQLException e) {
+                Log.e(TAG, "Could not write " + batch.size() + " attendance records");
+                e.printStackTrace();
+                return false;
+            } finally {
+                database.endTransaction();
+            }
+        }
+
+        RegistrationMetrics.getInstance().record(RegistrationMetrics.Phase.DB_WRITE, start);
+        Log.i(TAG, "Wrote " + batch.size() + " attendance records");
+        if (mListener != null) mListener.onRecordsWritten(batch);
+        return true;
+    }
+
+    /**
+     * Release the compiled statement, call only once the queue feeding this writer has closed
+     */
+    public void close() {
+        synchronized (mDatabase) {
+            if (mInsertStatement != null) {
+                mInsertStatement.close();
+                mInsertStatement = null;
+            }
+        }
+    }
+}
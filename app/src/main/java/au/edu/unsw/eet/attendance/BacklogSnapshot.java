@@ -0,0 +1,66 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of a student's unconfirmed handshakes, so that StudentServer can answer a backlog
+ * request without touching the database.
+ * <p> Only the thread that writes student_attendance changes the snapshot, in the same order as
+ * its writes. Any thread may read it. </p>
+ */
+public class BacklogSnapshot {
+    /**
+     * Unconfirmed records by instructor, then by nonce in the order they were stored. A nonce is
+     * confirmed for every row that carries it, as with UPDATE_STUDENT_SYNCED.
+     */
+    private final Map<String, LinkedHashMap<Integer, AttendanceRecord>> mRecords = new HashMap<>();
+
+    /**
+     * Replace the snapshot with records loaded from the database, oldest first
+     */
+    public synchronized void load(List<AttendanceRecord> records) {
+        mRecords.clear();
+        for (AttendanceRecord record : records) add(record);
+    }
+
+    /**
+     * Add a record once it has been stored
+     */
+    public synchronized void add(AttendanceRecord record) {
+        LinkedHashMap<Integer, AttendanceRecord> records = mRecords.get(record.mInstructorId);
+        if (records == null) {
+            records = new LinkedHashMap<>();
+            mRecords.put(record.mInstructorId, records);
+        }
+        records.put(record.mRand, record);
+    }
+
+    /**
+     * Drop a record once the instructor's confirmation has been stored
+     */
+    public synchronized void confirm(String instructorId, int rand) {
+        LinkedHashMap<Integer, AttendanceRecord> records = mRecords.get(instructorId);
+        if (records == null) return;
+
+        records.remove(rand);
+        if (records.isEmpty()) mRecords.remove(instructorId);
+    }
+
+    /**
+     * @return up to limit records the instructor has not confirmed, oldest first
+     */
+    public synchronized List<AttendanceRecord> get(String instructorId, int limit) {
+        List<AttendanceRecord> backlog = new ArrayList<>();
+        LinkedHashMap<Integer, AttendanceRecord> records = mRecords.get(instructorId);
+        if (records == null) return backlog;
+
+        Iterator<AttendanceRecord> iterator = records.values().iterator();
+        while (iterator.hasNext() && backlog.size() < limit) backlog.add(iterator.next());
+        return backlog;
+    }
+}
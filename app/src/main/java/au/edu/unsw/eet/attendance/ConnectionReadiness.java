@@ -0,0 +1,153 @@
+package au.edu.unsw.eet.attendance;
+
+import android.annotation.TargetApi;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Waits for the wifi connection to one expected network to become usable. Readiness is reported
+ * by network state broadcasts through onConnected() and, from Lollipop, by a network callback
+ * that also supplies the Network to bind sockets to. Nothing is polled, so a waiting thread is
+ * released as soon as the right network is up.
+ */
+public class ConnectionReadiness {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = ConnectionReadiness.class.getSimpleName();
+
+    private final ConnectivityManager mConnectivityManager;
+
+    /**
+     * From Marshmallow sockets must be bound to the Network, so the callback has to supply it
+     */
+    private final boolean mNeedsNetwork;
+
+    private String mExpectedSsid = null;
+    private boolean mConnected = false;
+    private Network mNetwork = null;
+    private Object mNetworkCallback = null;
+
+    /**
+     * @param connectivityManager null to rely on onConnected() alone
+     */
+    public ConnectionReadiness(ConnectivityManager connectivityManager) {
+        mConnectivityManager = connectivityManager;
+        mNeedsNetwork = connectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * Start waiting for the given network, replacing any earlier expectation
+     *
+     * @param ssid SSID without quotes
+     */
+    public void expect(String ssid) {
+        cancel();
+        synchronized (this) {
+            mExpectedSsid = '"' + ssid + '"';
+            mConnected = false;
+            mNetwork = null;
+        }
+
+        if (mConnectivityManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            registerNetworkCallback();
+        }
+    }
+
+    /**
+     * A wifi network has connected
+     *
+     * @param ssid    SSID in quotes, as given by NetworkInfo.getExtraInfo()
+     * @param network the network, or null if not known
+     */
+    public synchronized void onConnected(String ssid, Network network) {
+        if (mExpectedSsid == null || !mExpectedSsid.equals(ssid)) return;
+
+        mConnected = true;
+        if (network != null) mNetwork = network;
+        notifyAll();
+    }
+
+    /**
+     * Block until the expected network is usable or the deadline passes
+     *
+     * @return true if the network is usable
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while (!isReady() && (remaining = end - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        return isReady();
+    }
+
+    private boolean isReady() {
+        return mConnected && (mNetwork != null || !mNeedsNetwork);
+    }
+
+    /**
+     * @return the connected network, or null if it was only reported by broadcast
+     */
+    public synchronized Network getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * @return SSID in quotes of the network being waited for, or null
+     */
+    public synchronized String getExpectedSsid() {
+        return mExpectedSsid;
+    }
+
+    /**
+     * Stop waiting and release the network callback
+     */
+    public void cancel() {
+        Object callback;
+        synchronized (this) {
+            mExpectedSsid = null;
+            callback = mNetworkCallback;
+            mNetworkCallback = null;
+            notifyAll();
+        }
+
+        if (callback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            unregisterNetworkCallback(callback);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                NetworkInfo networkInfo = mConnectivityManager.getNetworkInfo(network);
+                if (networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
+                    Log.i(TAG, "Network available: " + networkInfo.getExtraInfo());
+                    onConnected(networkInfo.getExtraInfo(), network);
+                }
+            }
+        };
+
+        synchronized (this) {
+            mNetworkCallback = callback;
+        }
+        mConnectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .build(), callback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkCallback(Object callback) {
+        try {
+            mConnectivityManager.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) callback);
+        } catch (IllegalArgumentException e) {
+            // Already unregistered
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package au.edu.unsw.eet.attendance;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Exports the result of a history query to a file on a background thread, streaming rows
+ * straight from the cursor. Cancelling the task stops the export and removes the partial file.
+ */
+public class CsvExportTask extends AsyncTask<Void, Integer, Integer> {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = CsvExportTask.class.getSimpleName();
+
+    /**
+     * Notified on the main thread
+     */
+    public interface Listener {
+        void onExportProgress(int rowsWritten, int totalRows);
+
+        /**
+         * @param rowsWritten number of rows in the file, or -1 if the export failed or was cancelled
+         */
+        void onExportFinished(File file, int rowsWritten);
+    }
+
+    private final AttendanceDatabase mDatabase;
+    private final String mSql;
+    private final String[] mSelectionArgs;
+    private final File mFile;
+    private final boolean mGzip;
+    private final Listener mListener;
+    private final CsvExporter mExporter = new CsvExporter();
+
+    /**
+     * @param sql  query whose columns are written in order
+     * @param gzip compress the file, in which case ".gz" should be part of its name
+     */
+    public CsvExportTask(AttendanceDatabase database, String sql, String[] selectionArgs,
+                         File file, boolean gzip, Listener listener) {
+        mDatabase = database;
+        mSql = sql;
+        mSelectionArgs = selectionArgs;
+        mFile = file;
+        mGzip = gzip;
+        mListener = listener;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Cancel the task, the exporter is stopped directly as it does not poll isCancelled()
+     */
+    public void cancelExport() {
+        mExporter.cancel();
+        cancel(false);
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        Cursor c = null;
+        FileOutputStream out = null;
+        try {
+            c = mDatabase.getReadableDatabase().rawQuery(mSql, mSelectionArgs);
+            final Cursor cursor = c;
+
+            out = new FileOutputStream(mFile);
+            int written = mExporter.export(new CsvExporter.Rows() {
+                @Override
+                public int getCount() {
+                    return cursor.getCount();
+                }
+
+                @Override
+                public int getColumnCount() {
+                    return cursor.getColumnCount();
+                }
+
+                @Override
+                public boolean next() {
+                    return cursor.moveToNext();
+                }
+
+                @Override
+                public String get(int column) {
+                    return cursor.getString(column);
+                }
+            }, out.getChannel(), mGzip, new CsvExporter.ProgressListener() {
+                @Override
+                public void onProgress(int rowsWritten, int totalRows) {
+                    publishProgress(rowsWritten, totalRows);
+                }
+            });
+
+            Log.i(TAG, "Exported " + written + " rows to " + mFile);
+            return mExporter.isCancelled() ? -1 : written;
+        } catch (IOException | SQLException e) {
+            Log.e(TAG, "Export failed: " + e.toString());
+            return -1;
+        } finally {
+            if (c != null) c.close();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mListener.onExportProgress(values[0], values[1]);
+    }
+
+    @Override
+    protected void onPostExecute(Integer written) {
+        if (written < 0) mFile.delete();
+        mListener.onExportFinished(mFile, written);
+    }
+
+    @Override
+    protected void onCancelled(Integer written) {
+        Log.i(TAG, "Export cancelled");
+        mFile.delete();
+        mListener.onExportFinished(mFile, -1);
+    }
+}
@@ -0,0 +1,119 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams rows to a channel as CSV without holding more than one row in memory. Progress is
+ * reported every PROGRESS_INTERVAL rows and an export may be cancelled from any thread.
+ */
+public class CsvExporter {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Forward-only source of rows, such as a database cursor
+     */
+    public interface Rows {
+        /**
+         * @return total number of rows, or -1 if unknown
+         */
+        int getCount();
+
+        int getColumnCount();
+
+        /**
+         * Advance to the next row
+         *
+         * @return false once there are no more rows
+         */
+        boolean next();
+
+        String get(int column);
+    }
+
+    public interface ProgressListener {
+        void onProgress(int rowsWritten, int totalRows);
+    }
+
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Stop an export in progress, export() then returns after the current row
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Write every row to the channel, closing the channel when done
+     *
+     * @param gzip     compress the output with gzip
+     * @param listener notified of progress on the calling thread, may be null
+     * @return the number of rows written
+     */
+    public int export(Rows rows, WritableByteChannel channel, boolean gzip, ProgressListener listener) throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        if (gzip) out = new GZIPOutputStream(out, BUFFER_SIZE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+
+        int total = rows.getCount();
+        int columns = rows.getColumnCount();
+        int written = 0;
+        try {
+            while (!mCancelled && rows.next()) {
+                for (int column = 0; column < columns; column++) {
+                    if (column > 0) writer.write(',');
+                    writeField(writer, rows.get(column));
+                }
+                writer.write('\n');
+                written++;
+
+                if (listener != null && written % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(written, total);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (listener != null && !mCancelled) listener.onProgress(written, total);
+        return written;
+    }
+
+    /**
+     * Write a field, quoting it only if it contains a separator, quote or line break
+     */
+    static void writeField(Writer writer, String field) throws IOException {
+        if (field == null) return;
+
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            writer.write(field);
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,141 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Service discovery records of student devices, keyed by device address, with a secondary index
+ * from advertised SSID to device address so that scan results can be matched in constant time.
+ * <p> Safe to use from any thread. Records are stored as immutable copies and replaced whole when
+ * a device re-advertises, so a reader never sees half of an update. Records not re-advertised
+ * within the TTL are evicted, and past maxEntries the longest unseen record is evicted, so memory
+ * stays bounded however many devices pass through. </p>
+ */
+public class DiscoveryRecords {
+
+    /**
+     * Discovery runs every few seconds to a minute while scanning, so a device that has not
+     * re-advertised for this long has most likely left
+     */
+    static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static class Entry {
+        final Map<String, String> mRecord;
+        final long mSeenAt;
+
+        Entry(Map<String, String> record, long seenAt) {
+            mRecord = record;
+            mSeenAt = seenAt;
+        }
+    }
+
+    private final long mTtl;
+    private final int mMaxEntries;
+
+    /**
+     * Insertion-ordered and re-inserted on every put, so the least recently seen entry is first
+     */
+    private final LinkedHashMap<String, Entry> mRecords = new LinkedHashMap<String, Entry>();
+    private final HashMap<String, String> mDevicesBySsid = new HashMap<String, String>();
+
+    public DiscoveryRecords() {
+        this(DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DiscoveryRecords(long ttl, int maxEntries) {
+        mTtl = ttl;
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Store or replace the record of a device, keeping the SSID index in step
+     */
+    public void put(String deviceAddress, Map<String, String> record) {
+        put(deviceAddress, record, System.currentTimeMillis());
+    }
+
+    public synchronized void put(String deviceAddress, Map<String, String> record, long now) {
+        Map<String, String> copy = Collections.unmodifiableMap(new HashMap<String, String>(record));
+        Entry previous = mRecords.remove(deviceAddress);
+        if (previous != null) unindex(deviceAddress, previous);
+
+        mRecords.put(deviceAddress, new Entry(copy, now));
+        String ssid = copy.get(P2pService.RECORD_SSID);
+        if (ssid != null) mDevicesBySsid.put(ssid, deviceAddress);
+
+        evictExpired(now);
+        Iterator<Map.Entry<String, Entry>> iterator = mRecords.entrySet().iterator();
+        while (mRecords.size() > mMaxEntries) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * @return the record of the device, or null if it has not been discovered or has expired
+     */
+    public Map<String, String> get(String deviceAddress) {
+        return get(deviceAddress, System.currentTimeMillis());
+    }
+
+    public synchronized Map<String, String> get(String deviceAddress, long now) {
+        Entry entry = mRecords.get(deviceAddress);
+        return entry == null || isExpired(entry, now) ? null : entry.mRecord;
+    }
+
+    /**
+     * @param ssid SSID as reported by a ScanResult, without quotes
+     * @return address of the discovered device advertising the SSID, or null if there is none
+     */
+    public String findDeviceBySsid(String ssid) {
+        return findDeviceBySsid(ssid, System.currentTimeMillis());
+    }
+
+    public synchronized String findDeviceBySsid(String ssid, long now) {
+        String deviceAddress = mDevicesBySsid.get(ssid);
+        if (deviceAddress == null || isExpired(mRecords.get(deviceAddress), now)) return null;
+        return deviceAddress;
+    }
+
+    /**
+     * Remove every record not seen within the TTL
+     *
+     * @return number of records removed
+     */
+    public synchronized int evictExpired(long now) {
+        int evicted = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = mRecords.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (!isExpired(eldest.getValue(), now)) break; // Later entries were seen more recently
+
+            iterator.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+            evicted++;
+        }
+        return evicted;
+    }
+
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.mSeenAt > mTtl;
+    }
+
+    /**
+     * Drop the SSID of a removed entry if it still points at the device
+     */
+    private void unindex(String deviceAddress, Entry entry) {
+        String ssid = entry.mRecord.get(P2pService.RECORD_SSID);
+        if (ssid != null && deviceAddress.equals(mDevicesBySsid.get(ssid))) {
+            mDevicesBySsid.remove(ssid);
+        }
+    }
+}
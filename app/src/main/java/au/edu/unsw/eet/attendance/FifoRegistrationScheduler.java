@@ -0,0 +1,25 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.ArrayDeque;
+
+/**
+ * Connects to devices in the order they were queued
+ */
+public class FifoRegistrationScheduler implements RegistrationScheduler {
+    private final ArrayDeque<Candidate> mQueue = new ArrayDeque<Candidate>();
+
+    @Override
+    public void add(Candidate candidate) {
+        mQueue.add(candidate);
+    }
+
+    @Override
+    public Candidate poll() {
+        return mQueue.poll();
+    }
+
+    @Override
+    public int size() {
+        return mQueue.size();
+    }
+}
@@ -0,0 +1,445 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes and decodes the messages exchanged in a handshake, in either of two formats.
+ * <p> Binary frames are MAGIC, VERSION, type, a two byte big-endian payload length and the
+ * payload: the nonce as four big-endian bytes, for TYPE_BACKLOG_RECORD an eight byte timestamp,
+ * then the user ID in UTF-8. IDs may therefore contain any character. </p>
+ * <p> After the handshake a student advertising SESSION_PROTOCOL keeps the connection open for
+ * further frames, see StudentServer. These exist only as binary frames. </p>
+ * <p> Text lines are the original "Instructor:&lt;id&gt;:&lt;rand&gt;" and "Student:&lt;id&gt;".
+ * MAGIC can never start a text line, so a reader tells the formats apart from the first byte and
+ * replies in the format it was addressed in. Students advertise binary support in their TXT
+ * record under RECORD_PROTOCOL, and instructors only send binary to students that do. </p>
+ * <p> Messages can be read from and written to either streams or ByteBuffers, the latter for
+ * non-blocking channels such as StudentServer's. A codec reuses one buffer for every message, so
+ * apart from the decoded ID nothing is allocated per message. Not thread-safe, use one codec per
+ * thread. </p>
+ */
+public class HandshakeCodec {
+    static final byte MAGIC = (byte) 0xA7;
+    static final byte VERSION = 1;
+
+    /**
+     * Protocol versions a student may advertise under RECORD_PROTOCOL
+     */
+    static final int BINARY_PROTOCOL = 1;
+    static final int SESSION_PROTOCOL = 2;
+
+    public static final byte TYPE_INSTRUCTOR = 1;
+    public static final byte TYPE_STUDENT = 2;
+
+    /**
+     * Session frames sent by the instructor. The nonce of TYPE_CONFIRM is that of the handshake
+     * being confirmed and the nonce of TYPE_BACKLOG_REQUEST the most records wanted. The ID is
+     * the instructor's, or "key=value" text for TYPE_METADATA.
+     */
+    public static final byte TYPE_CONFIRM = 3;
+    public static final byte TYPE_BACKLOG_REQUEST = 4;
+    public static final byte TYPE_METADATA = 5;
+    public static final byte TYPE_BYE = 6;
+
+    /**
+     * Session frames sent by the student. Each TYPE_BACKLOG_RECORD is a past handshake, with the
+     * instructor's ID and nonce and the time of the handshake, and TYPE_BACKLOG_END follows the
+     * last with the number sent as its nonce.
+     */
+    public static final byte TYPE_BACKLOG_RECORD = 7;
+    public static final byte TYPE_BACKLOG_END = 8;
+
+    static final int HEADER_SIZE = 5;
+    static final int NONCE_SIZE = 4;
+    static final int TIMESTAMP_SIZE = 8;
+
+    /**
+     * Longest message in either format, IDs are far shorter in practice
+     */
+    static final int MAX_MESSAGE_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A decoded message, reused from one read to the next
+     */
+    public static class Message {
+        byte mType;
+        String mId;
+        int mNonce;
+
+        /**
+         * Milliseconds since the epoch, only carried by TYPE_BACKLOG_RECORD
+         */
+        long mTimestamp;
+
+        /**
+         * True if the message arrived as a binary frame
+         */
+        boolean mBinary;
+    }
+
+    private final byte[] mBuffer = new byte[MAX_MESSAGE_SIZE];
+
+    /**
+     * @param advertised value of RECORD_PROTOCOL in a student's TXT record, null if absent
+     * @return true if the student reads binary frames
+     */
+    public static boolean supportsBinary(String advertised) {
+        return advertisedProtocol(advertised) >= BINARY_PROTOCOL;
+    }
+
+    /**
+     * @param advertised value of RECORD_PROTOCOL in a student's TXT record, null if absent
+     * @return true if the student keeps the connection open for session frames
+     */
+    public static boolean supportsSession(String advertised) {
+        return advertisedProtocol(advertised) >= SESSION_PROTOCOL;
+    }
+
+    private static int advertisedProtocol(String advertised) {
+        if (advertised == null) return 0;
+        try {
+            return Integer.parseInt(advertised);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if frames of this type carry a timestamp
+     */
+    static boolean hasTimestamp(byte type) {
+        return type == TYPE_BACKLOG_RECORD;
+    }
+
+    /**
+     * @return true if a message starting with this byte is a binary frame
+     */
+    public static boolean isBinary(int firstByte) {
+        return (byte) firstByte == MAGIC;
+    }
+
+    /**
+     * Write one message and flush it
+     *
+     * @param nonce random number of the handshake, not sent in a text student message
+     */
+    public void write(OutputStream out, boolean binary, byte type, String id, int nonce) throws IOException {
+        int length = encode(binary, type, id, nonce);
+        out.write(mBuffer, 0, length);
+        out.flush();
+    }
+
+    /**
+     * Put one message into a buffer, for writing to a non-blocking channel
+     *
+     * @throws BufferOverflowException if the message does not fit in out
+     */
+    public void write(ByteBuffer out, boolean binary, byte type, String id, int nonce) throws IOException {
+        int length = encode(binary, type, id, nonce);
+        out.put(mBuffer, 0, length);
+    }
+
+    /**
+     * Write one session frame without flushing, so that several can be sent together
+     *
+     * @param timestamp only sent for TYPE_BACKLOG_RECORD
+     */
+    public void writeFrame(OutputStream out, byte type, String id, int nonce, long timestamp) throws IOException {
+        int length = encodeFrame(type, id, nonce, timestamp);
+        out.write(mBuffer, 0, length);
+    }
+
+    /**
+     * Put one session frame into a buffer
+     *
+     * @throws BufferOverflowException if the frame does not fit in out, which is left unchanged
+     */
+    public void writeFrame(ByteBuffer out, byte type, String id, int nonce, long timestamp) throws IOException {
+        int length = encodeFrame(type, id, nonce, timestamp);
+        out.put(mBuffer, 0, length);
+    }
+
+    /**
+     * Encode one message into mBuffer
+     *
+     * @return length of the message
+     */
+    private int encode(boolean binary, byte type, String id, int nonce) throws ProtocolException {
+        int length;
+        if (binary) {
+            length = encodeFrame(type, id, nonce, 0);
+        } else {
+            if (type != TYPE_INSTRUCTOR && type != TYPE_STUDENT) {
+                throw new ProtocolException("No text form for type " + type);
+            }
+            String prefix = type == TYPE_INSTRUCTOR ? P2pService.INSTRUCTOR_MESSAGE_PREFIX : P2pService.STUDENT_MESSAGE_PREFIX;
+            length = encodeAscii(prefix, 0);
+            length += encodeId(id, length);
+            if (type == TYPE_INSTRUCTOR) {
+                if (length >= mBuffer.length) throw new ProtocolException("Message too long");
+                mBuffer[length++] = ':';
+                length = encodeAscii(String.valueOf(nonce), length);
+            }
+            if (length >= mBuffer.length) throw new ProtocolException("Message too long");
+            mBuffer[length++] = '\n';
+        }
+        return length;
+    }
+
+    /**
+     * Encode one binary frame into mBuffer
+     *
+     * @return length of the frame
+     */
+    private int encodeFrame(byte type, String id, int nonce, long timestamp) throws ProtocolException {
+        int fixedLength = NONCE_SIZE + (hasTimestamp(type) ? TIMESTAMP_SIZE : 0);
+        int payloadLength = fixedLength + encodeId(id, HEADER_SIZE + fixedLength);
+        mBuffer[0] = MAGIC;
+        mBuffer[1] = VERSION;
+        mBuffer[2] = type;
+        mBuffer[3] = (byte) (payloadLength >>> 8);
+        mBuffer[4] = (byte) payloadLength;
+        putInt(HEADER_SIZE, nonce);
+        if (hasTimestamp(type)) putLong(HEADER_SIZE + NONCE_SIZE, timestamp);
+        return HEADER_SIZE + payloadLength;
+    }
+
+    /**
+     * Read one message in whichever format it arrives
+     *
+     * @return false if the stream ended before a message started
+     */
+    public boolean read(InputStream in, Message message) throws IOException {
+        int first = in.read();
+        if (first == -1) return false;
+
+        if (isBinary(first)) {
+            readFrame(in, message);
+        } else {
+            readLine(in, first, message);
+        }
+        return true;
+    }
+
+    /**
+     * Take one message from a buffer filled by a non-blocking channel. Nothing is consumed unless a
+     * whole message is available.
+     *
+     * @param in buffer ready for reading, left positioned after the message
+     * @return false if in does not hold a whole message yet
+     */
+    public boolean read(ByteBuffer in, Message message) throws IOException {
+        int start = in.position();
+        int available = in.remaining();
+        if (available == 0) return false;
+
+        if (isBinary(in.get(start))) {
+            if (available < HEADER_SIZE) return false;
+            in.get(mBuffer, 0, HEADER_SIZE);
+            int payloadLength = checkHeader();
+            if (available < HEADER_SIZE + payloadLength) {
+                in.position(start);
+                return false;
+            }
+            in.get(mBuffer, HEADER_SIZE, payloadLength);
+            parseFrame(payloadLength, message);
+        } else {
+            int end = -1;
+            for (int i = start; i < start + available && end == -1; i++) {
+                if (in.get(i) == '\n') end = i;
+            }
+            if (end == -1) {
+                if (available > mBuffer.length) throw new ProtocolException("Line too long");
+                return false;
+            }
+            int length = end - start;
+            if (length > mBuffer.length) throw new ProtocolException("Line too long");
+            in.get(mBuffer, 0, length);
+            in.get(); // '\n'
+            parseLine(length, message);
+        }
+        return true;
+    }
+
+    private void readFrame(InputStream in, Message message) throws IOException {
+        readFully(in, 1, HEADER_SIZE - 1);
+        int payloadLength = checkHeader();
+        readFully(in, HEADER_SIZE, payloadLength);
+        parseFrame(payloadLength, message);
+    }
+
+    /**
+     * @return payload length of the frame whose header is in mBuffer
+     */
+    private int checkHeader() throws ProtocolException {
+        if (mBuffer[1] != VERSION) throw new ProtocolException("Unsupported version " + mBuffer[1]);
+
+        int payloadLength = ((mBuffer[3] & 0xff) << 8) | (mBuffer[4] & 0xff);
+        int fixedLength = NONCE_SIZE + (hasTimestamp(mBuffer[2]) ? TIMESTAMP_SIZE : 0);
+        if (payloadLength < fixedLength || HEADER_SIZE + payloadLength > mBuffer.length) {
+            throw new ProtocolException("Bad payload length " + payloadLength);
+        }
+        return payloadLength;
+    }
+
+    private void parseFrame(int payloadLength, Message message) {
+        message.mType = mBuffer[2];
+        message.mNonce = getInt(HEADER_SIZE);
+        int idStart = HEADER_SIZE + NONCE_SIZE;
+        if (hasTimestamp(message.mType)) {
+            message.mTimestamp = getLong(idStart);
+            idStart += TIMESTAMP_SIZE;
+        } else {
+            message.mTimestamp = 0;
+        }
+        message.mId = new String(mBuffer, idStart, HEADER_SIZE + payloadLength - idStart, UTF_8);
+        message.mBinary = true;
+    }
+
+    private void readLine(InputStream in, int first, Message message) throws IOException {
+        int length = 0;
+        int b = first;
+        while (b != '\n') {
+            if (b == -1) throw new EOFException("Line not terminated");
+            if (length == mBuffer.length) throw new ProtocolException("Line too long");
+            mBuffer[length++] = (byte) b;
+            b = in.read();
+        }
+        parseLine(length, message);
+    }
+
+    /**
+     * Parse the text line in mBuffer, without its '\n'. The prefix ends at the first ':' and the
+     * instructor's nonce follows the last, so only the nonce is constrained and IDs may contain ':'.
+     */
+    private void parseLine(int length, Message message) throws ProtocolException {
+        if (length > 0 && mBuffer[length - 1] == '\r') length--;
+
+        int prefixEnd = indexOf(':', 0, length);
+        if (prefixEnd == -1) throw new ProtocolException("No prefix");
+
+        if (startsWith(P2pService.INSTRUCTOR_MESSAGE_PREFIX, length)) {
+            int nonceStart = lastIndexOf(':', length);
+            if (nonceStart == prefixEnd) throw new ProtocolException("No nonce");
+            message.mType = TYPE_INSTRUCTOR;
+            message.mNonce = parseInt(nonceStart + 1, length);
+            message.mId = new String(mBuffer, prefixEnd + 1, nonceStart - prefixEnd - 1, UTF_8);
+        } else if (startsWith(P2pService.STUDENT_MESSAGE_PREFIX, length)) {
+            message.mType = TYPE_STUDENT;
+            message.mNonce = 0;
+            message.mId = new String(mBuffer, prefixEnd + 1, length - prefixEnd - 1, UTF_8);
+        } else {
+            throw new ProtocolException("Unknown prefix");
+        }
+        message.mTimestamp = 0;
+        message.mBinary = false;
+    }
+
+    /**
+     * Encode the ID into the buffer at offset, without a CharsetEncoder for plain ASCII IDs
+     *
+     * @return number of bytes written
+     */
+    private int encodeId(String id, int offset) throws ProtocolException {
+        int length = id.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) ascii = id.charAt(i) < 0x80;
+
+        if (ascii) {
+            if (offset + length > mBuffer.length) throw new ProtocolException("ID too long");
+            for (int i = 0; i < length; i++) mBuffer[offset + i] = (byte) id.charAt(i);
+            return length;
+        }
+
+        byte[] bytes = id.getBytes(UTF_8);
+        if (offset + bytes.length > mBuffer.length) throw new ProtocolException("ID too long");
+        System.arraycopy(bytes, 0, mBuffer, offset, bytes.length);
+        return bytes.length;
+    }
+
+    /**
+     * @return offset just past the string
+     */
+    private int encodeAscii(String s, int offset) throws ProtocolException {
+        if (offset + s.length() > mBuffer.length) throw new ProtocolException("Message too long");
+        for (int i = 0; i < s.length(); i++) mBuffer[offset + i] = (byte) s.charAt(i);
+        return offset + s.length();
+    }
+
+    private void readFully(InputStream in, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(mBuffer, offset, length);
+            if (read == -1) throw new EOFException("Frame truncated");
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private void putInt(int offset, int value) {
+        mBuffer[offset] = (byte) (value >>> 24);
+        mBuffer[offset + 1] = (byte) (value >>> 16);
+        mBuffer[offset + 2] = (byte) (value >>> 8);
+        mBuffer[offset + 3] = (byte) value;
+    }
+
+    private int getInt(int offset) {
+        return ((mBuffer[offset] & 0xff) << 24) | ((mBuffer[offset + 1] & 0xff) << 16)
+                | ((mBuffer[offset + 2] & 0xff) << 8) | (mBuffer[offset + 3] & 0xff);
+    }
+
+    private void putLong(int offset, long value) {
+        putInt(offset, (int) (value >>> 32));
+        putInt(offset + 4, (int) value);
+    }
+
+    private long getLong(int offset) {
+        return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xffffffffL);
+    }
+
+    private boolean startsWith(String prefix, int length) {
+        if (prefix.length() > length) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (mBuffer[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (mBuffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(char c, int to) {
+        for (int i = to - 1; i >= 0; i--) {
+            if (mBuffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private int parseInt(int from, int to) throws ProtocolException {
+        if (from == to) throw new ProtocolException("Empty number");
+
+        boolean negative = mBuffer[from] == '-';
+        if (negative && ++from == to) throw new ProtocolException("Empty number");
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = mBuffer[i] - '0';
+            if (digit < 0 || digit > 9) throw new ProtocolException("Bad number");
+            value = value * 10 + digit;
+            if (value > limit) throw new ProtocolException("Number too large");
+        }
+        return (int) (negative ? -value : value);
+    }
+}
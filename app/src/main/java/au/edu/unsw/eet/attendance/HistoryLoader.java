@@ -0,0 +1,289 @@
+package au.edu.unsw.eet.attendance;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs history queries on a background thread. Refresh requests that arrive within
+ * COALESCE_DELAY_MS of each other are collapsed into a single query, and only the resulting change
+ * is posted back to the main thread. Pages of a PagedWindow are read here too, in the order they
+ * are asked for.
+ * <p> The loader keeps no state of its own. Each request states what the caller already holds, and
+ * each Diff states what it was computed against, so the caller can drop a Diff that has been
+ * overtaken by AttendanceEvents applied in the meantime. </p>
+ */
+public class HistoryLoader extends HandlerThread {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = HistoryLoader.class.getSimpleName();
+
+    static final long COALESCE_DELAY_MS = 200;
+
+    /**
+     * What the caller holds when asking for a refresh
+     */
+    static class Request {
+        final String mUserId;
+        final int mUserMode;
+        final long mBaseWatermark;
+        final int mBaseCount;
+
+        Request(String userId, int userMode, long baseWatermark, int baseCount) {
+            mUserId = userId;
+            mUserMode = userMode;
+            mBaseWatermark = baseWatermark;
+            mBaseCount = baseCount;
+        }
+    }
+
+    /**
+     * Change to apply to a PagedWindow of the history
+     */
+    public static class Diff {
+        final String mUserId;
+        final int mUserMode;
+
+        /**
+         * Watermark of the request this Diff answers, 0 if it starts from an empty window
+         */
+        final long mBaseWatermark;
+        final int mAdded;
+
+        /**
+         * Highest ROWID counted so far, page queries must not go past it
+         */
+        final long mWatermark;
+
+        /**
+         * Rows of the newest page after the change, newest first, so that the main thread does
+         * not have to query for the rows that have just arrived
+         */
+        final List<HistoryRecord> mNewestPage;
+
+        Diff(String userId, int userMode, long baseWatermark, int added, long watermark, List<HistoryRecord> newestPage) {
+            mUserId = userId;
+            mUserMode = userMode;
+            mBaseWatermark = baseWatermark;
+            mAdded = added;
+            mWatermark = watermark;
+            mNewestPage = newestPage;
+        }
+    }
+
+    /**
+     * Rows of one page asked for with requestPage()
+     */
+    public static class Page {
+        final int mPage;
+        final int mRequest;
+
+        /**
+         * Rows of the page, newest first
+         */
+        final List<HistoryRecord> mRows;
+
+        Page(int page, int request, List<HistoryRecord> rows) {
+            mPage = page;
+            mRequest = request;
+            mRows = rows;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread, only when something has changed
+         */
+        void onHistoryChanged(Diff diff);
+
+        /**
+         * Called on the main thread with the rows of a page
+         */
+        void onPageLoaded(Page page);
+    }
+
+    private final AttendanceDatabase mDatabase;
+    private final int mPageSize;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Handler mHandler;
+
+    /**
+     * Most recent request, earlier ones are superseded by it
+     */
+    private final AtomicReference<Request> mRequest = new AtomicReference<>();
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            // Requests from here on need another query
+            refresh(mRequest.getAndSet(null));
+        }
+    };
+
+    public HistoryLoader(AttendanceDatabase database, int pageSize, Listener listener) {
+        super(TAG);
+        mDatabase = database;
+        mPageSize = pageSize;
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        mHandler = new Handler(getLooper());
+    }
+
+    /**
+     * Stop the loader and drop any change not yet delivered
+     */
+    @Override
+    public boolean quit() {
+        mMainHandler.removeCallbacksAndMessages(null);
+        return super.quit();
+    }
+
+    /**
+     * Read a page of the given user's history, limited to records at or below the watermark.
+     * Never blocks, the rows are delivered to onPageLoaded().
+     *
+     * @see PagedWindow.PageLoader#requestPage(int, int, long, int, int)
+     */
+    public void requestPage(final String userId, final int userMode, final long watermark,
+                            final int page, final int request, final long newerKey,
+                            final int offset, final int limit) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Page loaded = new Page(page, request,
+                        loadPage(mDatabase, userId, userMode, watermark, newerKey, offset, limit));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onPageLoaded(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ask for the records of the given user above baseWatermark. Never blocks.
+     *
+     * @param baseWatermark highest ROWID the caller holds, 0 to load from scratch
+     * @param baseCount     number of rows the caller holds
+     */
+    public void requestRefresh(String userId, int userMode, long baseWatermark, int baseCount) {
+        Request previous = mRequest.getAndSet(new Request(userId, userMode, baseWatermark, baseCount));
+        if (previous == null) {
+            mHandler.postDelayed(mRefresh, COALESCE_DELAY_MS);
+        }
+    }
+
+    private void refresh(Request request) {
+        String userId = request.mUserId;
+        int userMode = request.mUserMode;
+        long watermark = request.mBaseWatermark;
+
+        Cursor c = null;
+        int added = 0;
+        try {
+            SQLiteDatabase database = mDatabase.getReadableDatabase();
+
+            String sql = "SELECT COUNT(*), MAX(ROWID) FROM " + historyTable(userMode) + " " +
+                    "WHERE " + historyUserColumn(userMode) + " = ? AND ROWID > ?;";
+            c = database.rawQuery(sql, new String[]{userId, String.valueOf(watermark)});
+
+            if (c.moveToFirst()) {
+                added = c.getInt(0);
+                if (added > 0) watermark = c.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (c != null) c.close();
+        }
+        Log.v(TAG, added + " new records");
+
+        // Nothing to tell the caller unless it is loading from scratch
+        if (request.mBaseWatermark != 0 && added == 0) return;
+
+        int count = request.mBaseCount + added;
+        List<HistoryRecord> newestPage = null;
+        if (count > 0) {
+            int newestPageSize = count - ((count - 1) / mPageSize) * mPageSize;
+            newestPage = loadPage(mDatabase, userId, userMode, watermark, PagedWindow.NO_KEY, 0, newestPageSize);
+        }
+
+        final Diff diff = new Diff(userId, userMode, request.mBaseWatermark, added, watermark, newestPage);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onHistoryChanged(diff);
+            }
+        });
+    }
+
+    static String historyTable(int userMode) {
+        return userMode == MainActivity.STUDENT_MODE ? AttendanceDatabase.STUDENT_TABLE : AttendanceDatabase.INSTRUCTOR_TABLE;
+    }
+
+    static String historyUserColumn(int userMode) {
+        return userMode == MainActivity.STUDENT_MODE ? "student_id" : "instructor_id";
+    }
+
+    /**
+     * Query for a page of a user's history, newest first. The keyset form seeks straight to the
+     * rows below a ROWID in the history index. The offset form walks the index past every newer
+     * row, and is only used for the newest page, where the offset is 0, or when scrolling jumps
+     * past pages that were never loaded.
+     *
+     * @param keyset parameters are (user, ROWID to start below, limit), otherwise they are
+     *               (user, watermark, limit, offset)
+     */
+    static String pageQuery(int userMode, boolean keyset) {
+        return "SELECT instructor_id, student_id, timestamp, ROWID FROM " + historyTable(userMode) + " " +
+                "WHERE " + historyUserColumn(userMode) + " = ? AND " +
+                (keyset ? "ROWID < ? ORDER BY ROWID DESC LIMIT ?;" : "ROWID <= ? ORDER BY ROWID DESC LIMIT ? OFFSET ?;");
+    }
+
+    /**
+     * Read one page of a user's history, limited to records at or below the watermark
+     *
+     * @param newerKey ROWID of the oldest row of the page above, or PagedWindow.NO_KEY to skip
+     *                 offset rows instead
+     * @return the records, newest first
+     */
+    static List<HistoryRecord> loadPage(AttendanceDatabase attendanceDatabase, String userId, int userMode,
+                                        long watermark, long newerKey, int offset, int limit) {
+        ArrayList<HistoryRecord> records = new ArrayList<>(limit);
+        Cursor c = null;
+        try {
+            SQLiteDatabase database = attendanceDatabase.getReadableDatabase();
+
+            if (newerKey != PagedWindow.NO_KEY) {
+                c = database.rawQuery(pageQuery(userMode, true), new String[]{userId,
+                        String.valueOf(newerKey), String.valueOf(limit)});
+            } else {
+                c = database.rawQuery(pageQuery(userMode, false), new String[]{userId,
+                        String.valueOf(watermark), String.valueOf(limit), String.valueOf(offset)});
+            }
+
+            while (c.moveToNext()) {
+                records.add(new HistoryRecord(c.getString(0), c.getString(1), c.getString(2), c.getLong(3)));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (c != null) c.close();
+        }
+        return records;
+    }
+}
@@ -0,0 +1,22 @@
+package au.edu.unsw.eet.attendance;
+
+/**
+ * A single row of the attendance history list
+ */
+public class HistoryRecord {
+    final String mInstructorId;
+    final String mStudentId;
+    final String mTimestamp;
+
+    /**
+     * ROWID of the record, which orders the history and anchors the page below it
+     */
+    final long mRowId;
+
+    public HistoryRecord(String instructorId, String studentId, String timestamp, long rowId) {
+        mInstructorId = instructorId;
+        mStudentId = studentId;
+        mTimestamp = timestamp;
+        mRowId = rowId;
+    }
+}
@@ -0,0 +1,282 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Instructor's side of a handshake over an open Transport.Connection: exchange IDs, store the
+ * record and, with students advertising sessions, confirm it and recover earlier handshakes.
+ * Independent of Android, so the whole exchange can be driven from unit tests and simulations.
+ * <p> Keep one instance for as long as students are registered, as earlier handshakes are only
+ * recovered if their nonces were issued by it. Not thread-safe, run one handshake at a time. </p>
+ */
+public class InstructorHandshake {
+
+    /**
+     * Most earlier handshakes asked of a student in one session
+     */
+    static final int SESSION_BACKLOG_LIMIT = StudentServer.MAX_BACKLOG;
+
+    /**
+     * Devices whose issued nonces are remembered, the least recently seen are forgotten first
+     */
+    static final int MAX_ISSUED_DEVICES = DiscoveryRecords.DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Furthest the time a student gives for an earlier handshake may be from the time its nonce
+     * was issued, allowing for the student's clock and its timestamps being in whole seconds
+     */
+    static final long BACKLOG_CLOCK_SKEW_MS = 10 * 60 * 1000;
+
+    /**
+     * Where records end up, the instructor's database in the app
+     */
+    public interface Store {
+        /**
+         * Queue a record for storage, may return before it is written
+         */
+        void store(AttendanceRecord record);
+
+        /**
+         * Write records in one transaction before returning
+         *
+         * @return true if every record was committed, false if none were
+         */
+        boolean commit(List<AttendanceRecord> records);
+
+        /**
+         * @return true if a handshake with this student and nonce has already been stored
+         */
+        boolean holds(String studentId, int rand);
+    }
+
+    public static class Result {
+        /**
+         * Student's ID, null if the student did not answer the handshake
+         */
+        final String mStudentId;
+        final int mNonce;
+        final long mTimestamp;
+
+        /**
+         * Earlier handshakes stored from the student's backlog
+         */
+        final int mRecovered;
+
+        /**
+         * Why the session after the handshake ended early, null if it completed or was not run.
+         * The handshake itself has been stored either way.
+         */
+        final IOException mSessionError;
+
+        Result(String studentId, int nonce, long timestamp, int recovered, IOException sessionError) {
+            mStudentId = studentId;
+            mNonce = nonce;
+            mTimestamp = timestamp;
+            mRecovered = recovered;
+            mSessionError = sessionError;
+        }
+    }
+
+    private final String mInstructorId;
+    private final Store mStore;
+    private final HandshakeCodec mCodec = new HandshakeCodec();
+    private final HandshakeCodec.Message mMessage = new HandshakeCodec.Message();
+    private final Random mRandom = new Random();
+    private final RegistrationMetrics mMetrics = RegistrationMetrics.getInstance();
+
+    /**
+     * Nonces sent to each device and when, the only earlier handshakes a student may have
+     * recovered. Access-ordered, so the least recently seen device is first.
+     */
+    private final LinkedHashMap<String, LinkedHashMap<Integer, Long>> mIssued =
+            new LinkedHashMap<String, LinkedHashMap<Integer, Long>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LinkedHashMap<Integer, Long>> eldest) {
+                    return size() > MAX_ISSUED_DEVICES;
+                }
+            };
+
+    public InstructorHandshake(String instructorId, Store store) {
+        mInstructorId = instructorId;
+        mStore = store;
+    }
+
+    public String getInstructorId() {
+        return mInstructorId;
+    }
+
+    /**
+     * Run the handshake, leaving the connection for the caller to close. Once the student's ID has
+     * been received, a failed session is reported in the Result rather than thrown, as the
+     * handshake has already been stored.
+     *
+     * @param deviceAddress student's device, stored with the record
+     * @param protocol      value of RECORD_PROTOCOL in the student's TXT record, null if absent
+     */
+    public Result run(Transport.Connection connection, String deviceAddress, String protocol) throws IOException {
+        // Binary frames if the student advertises them, text lines otherwise
+        boolean binary = HandshakeCodec.supportsBinary(protocol);
+        OutputStream out = connection.getOutputStream();
+        InputStream in = connection.getInputStream();
+
+        long exchangeStart = RegistrationMetrics.start();
+        int rand = mRandom.nextInt(1000000);
+        issue(deviceAddress, rand, System.currentTimeMillis());
+        mCodec.write(out, binary, HandshakeCodec.TYPE_INSTRUCTOR, mInstructorId, rand);
+
+        boolean received = mCodec.read(in, mMessage);
+        mMetrics.record(RegistrationMetrics.Phase.EXCHANGE, exchangeStart);
+
+        long timestamp = System.currentTimeMillis();
+        if (!received || mMessage.mType != HandshakeCodec.TYPE_STUDENT) {
+            return new Result(null, rand, timestamp, 0, null);
+        }
+
+        String studentId = mMessage.mId;
+        AttendanceRecord record = new AttendanceRecord(mInstructorId, deviceAddress, studentId, rand, timestamp);
+        if (!HandshakeCodec.supportsSession(protocol)) {
+            // Nothing is confirmed to the student, so the record can be written behind
+            mStore.store(record);
+            return new Result(studentId, rand, timestamp, 0, null);
+        }
+
+        // A student never offers a confirmed handshake again, so only confirm it once committed.
+        // Otherwise queue it, the student keeps it for a later session in case that fails too.
+        boolean committed = mStore.commit(Collections.singletonList(record));
+        if (!committed) mStore.store(record);
+
+        // Make the most of the association while the connection is open
+        return runSession(out, in, deviceAddress, studentId, rand, timestamp, committed);
+    }
+
+    /**
+     * Carry on from a binary handshake on the same connection. The first round trip confirms the
+     * handshake, asks for earlier handshakes the student has not had confirmed and pushes the
+     * session metadata. The second confirms the earlier handshakes, which are stored unless
+     * already held, and ends the session.
+     * <p> Only nonces this instructor issued to the device are taken from the student, and are
+     * stored with the time they were issued, so that a modified student app cannot make up past
+     * attendance. Others are neither stored nor confirmed. </p>
+     * <p> Records are committed before they are confirmed, as the student marks confirmed records
+     * synced and never offers them again. </p>
+     *
+     * @param committed the handshake's own record has been committed and may be confirmed
+     */
+    private Result runSession(OutputStream out, InputStream in, String deviceAddress, String studentId,
+                              int rand, long timestamp, boolean committed) {
+        int recovered = 0;
+        try {
+            OutputStream frames = new BufferedOutputStream(out);
+            if (committed) mCodec.writeFrame(frames, HandshakeCodec.TYPE_CONFIRM, mInstructorId, rand, 0);
+            mCodec.writeFrame(frames, HandshakeCodec.TYPE_BACKLOG_REQUEST, mInstructorId, SESSION_BACKLOG_LIMIT, 0);
+            mCodec.writeFrame(frames, HandshakeCodec.TYPE_METADATA,
+                    "session=" + startOfDay(System.currentTimeMillis()) / 1000, 0, 0);
+            frames.flush();
+
+            ArrayList<Integer> confirmed = new ArrayList<>();
+            ArrayList<AttendanceRecord> backlog = new ArrayList<>();
+            readBacklog(in, deviceAddress, studentId, confirmed, backlog);
+            if (!backlog.isEmpty() && mStore.commit(backlog)) {
+                for (AttendanceRecord record : backlog) confirmed.add(record.mRand);
+                recovered = backlog.size();
+            }
+
+            for (int backlogRand : confirmed) {
+                mCodec.writeFrame(frames, HandshakeCodec.TYPE_CONFIRM, mInstructorId, backlogRand, 0);
+            }
+            mCodec.writeFrame(frames, HandshakeCodec.TYPE_BYE, mInstructorId, 0, 0);
+            frames.flush();
+
+            // Wait for the student to close, so that the confirmations are not cut off
+            while (mCodec.read(in, mMessage)) {
+                // Nothing is expected after goodbye
+            }
+        } catch (IOException e) {
+            return new Result(studentId, rand, timestamp, recovered, e);
+        }
+        return new Result(studentId, rand, timestamp, recovered, null);
+    }
+
+    /**
+     * Read the student's earlier handshakes up to the end of its backlog
+     *
+     * @param held    filled with the nonces of handshakes already stored
+     * @param backlog filled with records of handshakes to store
+     */
+    private void readBacklog(InputStream in, String deviceAddress, String studentId, List<Integer> held,
+                             List<AttendanceRecord> backlog) throws IOException {
+        int received = 0;
+        while (mCodec.read(in, mMessage)) {
+            if (mMessage.mType == HandshakeCodec.TYPE_BACKLOG_END) break;
+            if (mMessage.mType != HandshakeCodec.TYPE_BACKLOG_RECORD) {
+                throw new ProtocolException("Unexpected frame type " + mMessage.mType);
+            }
+            if (++received > SESSION_BACKLOG_LIMIT) {
+                throw new ProtocolException("More than " + SESSION_BACKLOG_LIMIT + " earlier handshakes");
+            }
+            if (!mInstructorId.equals(mMessage.mId)) {
+                throw new ProtocolException("Earlier handshake with another instructor");
+            }
+
+            int backlogRand = mMessage.mNonce;
+            if (mStore.holds(studentId, backlogRand)) {
+                held.add(backlogRand);
+                continue;
+            }
+
+            Long issuedAt = getIssuedAt(deviceAddress, backlogRand);
+            if (issuedAt == null || Math.abs(mMessage.mTimestamp - issuedAt) > BACKLOG_CLOCK_SKEW_MS) continue;
+
+            backlog.add(new AttendanceRecord(mInstructorId, deviceAddress, studentId, backlogRand, issuedAt));
+        }
+    }
+
+    /**
+     * Remember a nonce sent to a device, keeping the most recent SESSION_BACKLOG_LIMIT per device
+     */
+    private void issue(String deviceAddress, int rand, long timestamp) {
+        LinkedHashMap<Integer, Long> issued = mIssued.get(deviceAddress);
+        if (issued == null) {
+            issued = new LinkedHashMap<Integer, Long>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                    return size() > SESSION_BACKLOG_LIMIT;
+                }
+            };
+            mIssued.put(deviceAddress, issued);
+        }
+        issued.put(rand, timestamp);
+    }
+
+    /**
+     * @return time the nonce was sent to the device, or null if it was not sent by this instance
+     */
+    private Long getIssuedAt(String deviceAddress, int rand) {
+        LinkedHashMap<Integer, Long> issued = mIssued.get(deviceAddress);
+        return issued == null ? null : issued.get(rand);
+    }
+
+    /**
+     * @return local midnight at the start of the day containing the given time, in milliseconds
+     */
+    static long startOfDay(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -1,40 +1,30 @@
 package au.edu.unsw.eet.attendance;
 
-import android.accounts.NetworkErrorException;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.ConnectivityManager;
-import android.net.Network;
 import android.net.NetworkInfo;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
-import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.net.wifi.p2p.WifiP2pDevice;
 import android.net.wifi.p2p.WifiP2pManager;
 import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceRequest;
 import android.os.Build;
+import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 /**
  * This service performs two continuous tasks; discovering nearby student devices running the same
@@ -46,7 +36,22 @@ public class InstructorService extends P2pService {
     // Refactor-safe TAG for Logcat
     static final String TAG = InstructorService.class.getSimpleName();
 
-    static final int MAX_RETRY = 20;
+    /**
+     * Longest time from asking to join a student device's group to its connection being usable
+     */
+    static final long READY_DEADLINE_MS = 10 * 1000;
+
+    /**
+     * Timeout of each socket connect, bounds of the delay between attempts and the time allowed
+     * for all attempts to one device
+     */
+    static final int CONNECT_TIMEOUT_MS = 2 * 1000;
+    static final long CONNECT_INITIAL_BACKOFF_MS = 250;
+    static final long CONNECT_MAX_BACKOFF_MS = 2 * 1000;
+    static final long CONNECT_BUDGET_MS = 10 * 1000;
+
+    SocketConnector mSocketConnector = new SocketConnector(CONNECT_TIMEOUT_MS,
+            CONNECT_INITIAL_BACKOFF_MS, CONNECT_MAX_BACKOFF_MS, CONNECT_BUDGET_MS);
 
     WifiP2pDnsSdServiceRequest mServiceRequest;
 
@@ -62,24 +67,20 @@ public class InstructorService extends P2pService {
     boolean pendingServiceDiscovery = false;
 
     /**
-     * Service Discovery records containing device connection info
-     */
-    HashMap<String, Map<String, String>> mDeviceSdRecords = new HashMap<String, Map<String, String>>();
-
-    /**
-     * Student Devices with Visible Wifi Network
+     * Service Discovery records containing device connection info, indexed by SSID
      */
-    ArrayList<String> mDevicesToRegister = new ArrayList<String>();
+    DiscoveryRecords mDeviceSdRecords = new DiscoveryRecords();
 
     /**
-     * Device that this service is currently connecting or connected to
+     * Registration state of each student device, including the queue of devices to connect to and
+     * the device currently being connected to
      */
-    private String mDeviceRegistering;
+    RegistrationTracker mRegistrationTracker = new RegistrationTracker(new PriorityRegistrationScheduler());
 
     /**
-     * Visited Devices
+     * Decides when to discover and scan again
      */
-    ArrayList<String> mDevicesRegistered = new ArrayList<String>();
+    ScanScheduler mScanScheduler = new ScanScheduler(mRegistrationTracker);
 
     /**
      * Wifi Manager
@@ -101,125 +102,137 @@ public class InstructorService extends P2pService {
      */
     private int mTempNetworkId = -1;
 
+    /**
+     * Device to be connected to next and the network ID already added for it, so that it can be
+     * associated with as soon as the current device is finished
+     */
+    private String mStagedDevice = null;
+    private Map<String, String> mStagedRecord = null;
+    private int mStagedNetworkId = -1;
+
+    /**
+     * Signals when the network of the device being connected to is usable
+     */
+    ConnectionReadiness mConnectionReadiness;
+
+    /**
+     * Fails the registration if the device's network does not connect within READY_DEADLINE_MS
+     */
+    AssociationDeadline mAssociationDeadline;
+
+    /**
+     * Handshake protocol, only used by the one WifiConnectionThread running at a time. Kept for
+     * as long as the instructor's ID stays the same, as it remembers the nonces it has issued.
+     */
+    private volatile InstructorHandshake mHandshake;
+
+    /**
+     * Latency of each phase of a registration
+     */
+    RegistrationMetrics mMetrics = RegistrationMetrics.getInstance();
+
+    /**
+     * Times from RegistrationMetrics.start() at which the current association and the latest scan
+     * were requested
+     */
+    private volatile long mScanStartedAt = 0;
+    private volatile long mAssociationStartedAt = 0;
+
+    /**
+     * Batch size and maximum delay before queued attendance records are committed
+     */
+    static final int WRITE_BATCH_SIZE = 16;
+    static final long WRITE_DELAY_MS = 500;
+
+    /**
+     * Write-behind queue so that handshakes never wait on the database
+     */
+    WriteBehindQueue<AttendanceRecord> mAttendanceQueue;
+    AttendanceWriter mAttendanceWriter;
+
     class WifiConnectionThread extends Thread {
-        Socket mSocket;
+        Transport.Connection mConnection;
 
         @Override
         public void run() {
             Log.i(TAG, "mWifiConnectionThread Start");
+            String deviceAddress = mRegistrationTracker.getConnecting();
+            InstructorHandshake exchange = mHandshake;
+            boolean registered = false;
+
+            // Take the attempt over from the association deadline, unless it has already failed it
+            long remaining = deviceAddress == null ? 0 : mAssociationDeadline.disarm(deviceAddress);
+            if (remaining < 0) {
+                Log.e(TAG, "Connected to " + deviceAddress + " after the deadline");
+                return;
+            }
+            mMetrics.record(RegistrationMetrics.Phase.ASSOCIATE, mAssociationStartedAt);
             try {
-                // Obtain additional information about the connection
-                WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
-                for (int i = 0; wifiInfo == null || wifiInfo.getSSID().equals("<unknown ssid>"); i++) {
-                    if (i > MAX_RETRY) {
-                        mService.stopSelf();
-                        throw new NetworkErrorException("Cannot obtain valid SSID for connected network");
-                    }
-
-                    Thread.sleep(1000);
-                    wifiInfo = mWifiManager.getConnectionInfo();
-                }
+                Map<String, String> record = deviceAddress == null ? null : mDeviceSdRecords.get(deviceAddress);
 
-                Map<String, String> record = mDeviceSdRecords.get(mDeviceRegistering);
-
-                Log.i(TAG, "Connected to " + wifiInfo.getSSID());
                 // Check that we have connected to the right network
-                if (record != null && wifiInfo.getSSID().equals('"' + record.get(P2pService.RECORD_SSID) + '"')) {
+                long readyStart = RegistrationMetrics.start();
+                boolean ready = record != null && mConnectionReadiness.await(remaining);
+                mMetrics.record(RegistrationMetrics.Phase.READY, readyStart);
+                if (ready) {
+                    Log.i(TAG, "Connected to " + mConnectionReadiness.getExpectedSsid());
+
                     // Bind sockets to current network
                     // Only applicable on API 23
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                         ConnectivityManager manager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-
-                        for (Network network : manager.getAllNetworks()) {
-                            NetworkInfo networkInfo = manager.getNetworkInfo(network);
-                            Log.i(TAG, networkInfo.toString());
-                            if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI
-                                    && networkInfo.isConnected()
-                                    && networkInfo.getExtraInfo().equals(wifiInfo.getSSID())) {
-                                if (manager.bindProcessToNetwork(network)) {
-                                    Log.i(TAG, "bindProcessToNetwork Success");
-                                } else {
-                                    Log.e(TAG, "bindProcessToNetwork Error");
-                                    throw new SocketException("Could not bind sockets to network.");
-                                }
-                            }
+                        if (manager.bindProcessToNetwork(mConnectionReadiness.getNetwork())) {
+                            Log.i(TAG, "bindProcessToNetwork Success");
+                        } else {
+                            Log.e(TAG, "bindProcessToNetwork Error");
+                            throw new SocketException("Could not bind sockets to network.");
                         }
                     }
 
-
                     // Open socket
                     int serverPort = Integer.parseInt(record.get(P2pService.RECORD_SERVER_PORT));
                     InetAddress serverAddress = InetAddress.getByName(record.get(P2pService.RECORD_SERVER_ADDRESS));
 
-                    // Keep trying until a connection succeeds
-                    for (int i = 0; i < MAX_RETRY; i++) {
-                        try {
-                            mSocket = new Socket(serverAddress, serverPort);
-                            break;
-                        } catch (SocketException e) {
-                            Log.e(TAG, e.getMessage());
-                            Thread.sleep(1000);
-                        }
+                    // Keep trying until a connection succeeds or the budget runs out
+                    long connectStart = RegistrationMetrics.start();
+                    SocketConnector.Result result = mSocketConnector.connect(serverAddress, serverPort);
+                    mMetrics.record(RegistrationMetrics.Phase.SOCKET_CONNECT, connectStart);
+                    Log.i(TAG, "Socket " + result);
+                    if (result.mOutcome != SocketConnector.Outcome.CONNECTED) {
+                        throw new SocketException("Could not connect to " + serverAddress + ":" + serverPort);
                     }
+                    mConnection = result.mConnection;
 
-                    mSocket.setSoTimeout(3000);
-
-                    // Get output stream
-                    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream())), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
-
-                    int rand = (new Random()).nextInt(1000000);
-                    String outputMessage = INSTRUCTOR_MESSAGE_PREFIX + mHumanReadableId + ":" + rand;
-                    Log.i(TAG, outputMessage);
-                    out.println(outputMessage);
-
-                    String inputMessage = in.readLine();
-                    Log.i(TAG, "InputStream: " + inputMessage);
-
-                    // Add the current student to the database
-                    if (inputMessage.contains(STUDENT_MESSAGE_PREFIX)) {
-                        SQLiteDatabase database = null;
-                        try {
-                            database = openOrCreateDatabase(DATABASE_NAME, MODE_PRIVATE, null);
-                            String sql = null;
-
-                            // Store the student's deviceId, student ID, random number and current timestamp
-                            sql = "CREATE TABLE IF NOT EXISTS instructor_attendance(" +
-                                    "instructor_id VARCHAR, " +
-                                    "student_device VARCHAR, " +
-                                    "student_id VARCHAR, " +
-                                    "rand INT, " +
-                                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP);";
-                            database.execSQL(sql);
-
-                            sql = String.format(
-                                    "INSERT INTO instructor_attendance " +
-                                            "(instructor_id, student_device, student_id, rand) " +
-                                            "VALUES('%s', '%s', '%s', %d);",
-                                    mService.mHumanReadableId,
-                                    mDeviceRegistering,
-                                    inputMessage.split(":")[1],
-                                    rand);
-                            database.execSQL(sql);
-                            Log.i(TAG, sql);
-
-                        } catch (SQLException e) {
-                            e.printStackTrace();
-                        } finally {
-                            if (database != null)
-                                database.close();
-                        }
+                    // Prepare the next device while this one is busy
+                    stageNextDevice();
+
+                    InstructorHandshake.Result handshake;
+                    try {
+                        mConnection.setReadTimeout(3000);
+                        handshake = exchange.run(mConnection, deviceAddress, record.get(P2pService.RECORD_PROTOCOL));
+                    } finally {
+                        mConnection.close();
                     }
-                    sendMessage(inputMessage); // send message to trigger listView update
 
-                    // Close socket
-                    mSocket.close();
+                    if (handshake.mStudentId != null) {
+                        Log.i(TAG, "Student: " + handshake.mStudentId + ", " + handshake.mRecovered
+                                + " earlier handshakes recovered");
+                        if (handshake.mSessionError != null) {
+                            Log.w(TAG, "Session with " + handshake.mStudentId + " ended early",
+                                    handshake.mSessionError);
+                        }
+                        postEvent(new AttendanceEvent(AttendanceEvent.Phase.HANDSHAKE,
+                                mHumanReadableId, handshake.mStudentId, handshake.mNonce, handshake.mTimestamp));
+                    } else {
+                        postEvent(new AttendanceEvent(AttendanceEvent.Phase.FAILED,
+                                mHumanReadableId, null, handshake.mNonce, handshake.mTimestamp));
+                    }
 
-                    // Add to list of registered devices
-                    mDevicesRegistered.add(mDeviceRegistering);
+                    // Do not connect to this device again
+                    registered = true;
 
                 } else {
-                    // Incorrect Wifi Network
+                    // Incorrect Wifi Network, or not connected in time
                     Log.e(TAG, "Incorrect Wifi Network");
                 }
 
@@ -234,14 +247,18 @@ public class InstructorService extends P2pService {
                 e.printStackTrace();
             }
 
-            // Finished with this connection
-            resetWifiConnection();
+            // Finished with this connection, go straight on to the next device if there is one
+            long teardownStart = RegistrationMetrics.start();
+            long registrationStart = mAssociationStartedAt;
+            mConnectionReadiness.cancel();
+            removeTempNetwork();
 
             Log.i(TAG, "WifiManager disconnecting...");
-            synchronized (mService) {
-                endRegistration();
-                beginRegistration(); // Queue up next device to register
-            }
+            if (deviceAddress != null) mRegistrationTracker.finish(deviceAddress, registered);
+            beginRegistration(); // Queue up next device to register
+
+            mMetrics.record(RegistrationMetrics.Phase.TEARDOWN, teardownStart);
+            mMetrics.record(RegistrationMetrics.Phase.REGISTRATION, registrationStart);
             Log.i(TAG, "mWifiConnectionThread Complete");
         }
     }
@@ -257,38 +274,27 @@ public class InstructorService extends P2pService {
 
             if (action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
                 mWifiScanResult = mWifiManager.getScanResults();
+                mDeviceSdRecords.evictExpired(System.currentTimeMillis());
 
                 Log.i(TAG, "Comparing " + mWifiScanResult.size() + " Wifi Networks to "
                         + mDeviceSdRecords.size() + " Student Devices");
 
                 // Check if each visible wifi network is one of the discovered student devices
-                for (ScanResult network : mWifiScanResult) { // Compare Wifi Network
-                    for (Map.Entry<String, Map<String, String>> studentDevice : mDeviceSdRecords.entrySet()) {
-                        String deviceAddress = studentDevice.getKey();
-                        Map<String, String> record = studentDevice.getValue();
-
-                        // Check if this SSID exists in our map of student devices
-                        if (record.get(P2pService.RECORD_SSID).equals(network.SSID)) {
-                            Log.i(TAG, "Found StudentDevice SSID: " + network.SSID);
-                            // Add to data structure containing visible students
-
-                            Boolean exists = false;
-
-                            synchronized (mService) {
-                                exists = (!deviceAddress.equals(mDeviceRegistering) // Not current
-                                        && !mDevicesToRegister.contains(deviceAddress) // Not pending
-                                        && !mDevicesRegistered.contains(deviceAddress) // Not finished
-                                );
-                            }
-
-                            if (exists) {
-                                mDevicesToRegister.add(deviceAddress); // Add to queue
-                            } else {
-                                Log.i(TAG, "But already exists.");
-                            }
-                        }
+                for (ScanResult network : mWifiScanResult) {
+                    String deviceAddress = mDeviceSdRecords.findDeviceBySsid(network.SSID);
+                    if (deviceAddress == null) continue;
+
+                    Log.i(TAG, "Found StudentDevice SSID: " + network.SSID);
+                    // Not current, pending or finished
+                    if (!mRegistrationTracker.markVisible(deviceAddress, network.level)) {
+                        Log.i(TAG, "But already exists.");
                     }
                 }
+                mScanScheduler.onScanResults(mRegistrationTracker.queueVisible(System.currentTimeMillis()));
+                if (mScanStartedAt != 0) {
+                    mMetrics.record(RegistrationMetrics.Phase.SCAN, mScanStartedAt);
+                    mScanStartedAt = 0;
+                }
 
                 beginRegistration();
             }
@@ -303,7 +309,7 @@ public class InstructorService extends P2pService {
 
             final String action = intent.getAction();
 
-            if (mDeviceRegistering != null && action.equals(WifiManager.NETWORK_STATE_CHANGED_ACTION)) {
+            if (mRegistrationTracker.getConnecting() != null && action.equals(WifiManager.NETWORK_STATE_CHANGED_ACTION)) {
                 // State is stored in a NetworkInfo object
                 final NetworkInfo netInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
                 Log.i(TAG, "NetworkInfo: " + netInfo.getState().toString());
@@ -318,6 +324,7 @@ public class InstructorService extends P2pService {
                         && netInfo.getType() == ConnectivityManager.TYPE_WIFI
                         && netInfo.isConnected()) {
                     sawConnectingState = false; // reset flag
+                    mConnectionReadiness.onConnected(netInfo.getExtraInfo(), null);
 
                     // Start a new thread to handle the wifi connection
                     if (mWifiConnectionThread == null || !mWifiConnectionThread.isAlive()) {
@@ -336,22 +343,22 @@ public class InstructorService extends P2pService {
     Thread mWifiScanThread = new Thread() {
         @Override
         public void run() {
+            // Resume where an earlier run of the service left off
+            loadRegisteredDevices();
+
             try {
                 while (!isInterrupted()) {
-                    Boolean performScan = false;
-                    synchronized (mService) {
-                        performScan = (mDeviceRegistering == null && mDevicesToRegister.size() == 0);
-                    }
+                    mScanScheduler.awaitNextScan();
 
-                    if (performScan) {
-                        safeServiceDiscovery();
-                        Thread.sleep(3 * 1000);
-                        scan();
-                    } else {
-                        Log.v(TAG, "Devices To Register: " + mDevicesToRegister.size());
-                        Log.v(TAG, "Registering: " + mDeviceRegistering);
-                        Thread.sleep(60 * 1000);
-                    }
+                    long discoveryStart = RegistrationMetrics.start();
+                    safeServiceDiscovery();
+                    mScanScheduler.awaitDiscovery();
+                    mMetrics.record(RegistrationMetrics.Phase.DISCOVERY, discoveryStart);
+
+                    mScanScheduler.onScanStarted();
+                    mScanStartedAt = RegistrationMetrics.start();
+                    scan();
+                    Log.v(TAG, "Scan backoff: " + mScanScheduler.getBackoff() + "ms");
                 }
             } catch (InterruptedException e) {
                 Log.e(TAG, "mWifiScanThread Interrupted");
@@ -369,6 +376,23 @@ public class InstructorService extends P2pService {
         }
     };
 
+    /**
+     * @return true if the instructor has already stored the student's handshake with this nonce
+     */
+    private boolean holdsRecord(String instructorId, String studentId, int rand) {
+        Cursor c = null;
+        try {
+            c = mDatabase.getReadableDatabase().rawQuery(AttendanceDatabase.SELECT_INSTRUCTOR_RECORD,
+                    new String[]{instructorId, studentId, String.valueOf(rand)});
+            return c.moveToFirst();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (c != null) c.close();
+        }
+    }
+
     /**********************************************************************************************
      * Service Lifecycle Methods
      **********************************************************************************************/
@@ -378,6 +402,33 @@ public class InstructorService extends P2pService {
         super.onCreate();
 
         mWifiManager = (WifiManager) this.getSystemService(Context.WIFI_SERVICE);
+        mConnectionReadiness = new ConnectionReadiness(
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE));
+        mAssociationDeadline = new AssociationDeadline(new AssociationDeadline.Listener() {
+            @Override
+            public void onExpired(String deviceAddress) {
+                // Never connected, so no WifiConnectionThread will finish this attempt
+                Log.e(TAG, "Association with " + deviceAddress + " timed out");
+                mConnectionReadiness.cancel();
+                removeTempNetwork();
+                mRegistrationTracker.finish(deviceAddress, false);
+                beginRegistration();
+            }
+        });
+
+        mAttendanceWriter = new AttendanceWriter(mDatabase, new AttendanceWriter.Listener() {
+            @Override
+            public void onRecordsWritten(List<AttendanceRecord> batch) {
+                for (AttendanceRecord record : batch) {
+                    postEvent(new AttendanceEvent(AttendanceEvent.Phase.RECORDED,
+                            record.mInstructorId, record.mStudentId, record.mRand, record.mTimestamp,
+                            AttendanceDatabase.INSTRUCTOR_TABLE, record.mRowId));
+                }
+            }
+        });
+        mAttendanceQueue = new WriteBehindQueue<AttendanceRecord>(mAttendanceWriter,
+                WRITE_BATCH_SIZE, WRITE_DELAY_MS);
+        mAttendanceQueue.start();
 
         this.registerReceiver(mWifiScanReceiver,
                 new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
@@ -391,6 +442,28 @@ public class InstructorService extends P2pService {
     public int onStartCommand(Intent intent, int flags, int startId) {
         super.onStartCommand(intent, flags, startId);
 
+        // The user's ID only arrives with the intent. A handshake may be running on the old
+        // instance, which carries on with the ID it was created for.
+        if (mHandshake == null || !TextUtils.equals(mHandshake.getInstructorId(), mHumanReadableId)) {
+            final String instructorId = mHumanReadableId;
+            mHandshake = new InstructorHandshake(instructorId, new InstructorHandshake.Store() {
+                @Override
+                public void store(AttendanceRecord record) {
+                    mAttendanceQueue.enqueue(record);
+                }
+
+                @Override
+                public boolean commit(List<AttendanceRecord> records) {
+                    return mAttendanceWriter.commit(records);
+                }
+
+                @Override
+                public boolean holds(String studentId, int rand) {
+                    return holdsRecord(instructorId, studentId, rand);
+                }
+            });
+        }
+
         if (!mWifiScanThread.isAlive()) {
             mWifiScanThread.start();
         } else {
@@ -407,6 +480,7 @@ public class InstructorService extends P2pService {
         unregisterReceiver(mWifiScanReceiver);
         unregisterReceiver(mWifiStateReceiver);
 
+        mAssociationDeadline.shutdown();
         mWifiScanThread.interrupt();
         mWifiConnectionThread.interrupt();
         try {
@@ -419,6 +493,14 @@ public class InstructorService extends P2pService {
         resetWifiConnection();
         mWifiManager.saveConfiguration(); // Persist removed networks
 
+        // Commit any records still queued
+        try {
+            mAttendanceQueue.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mAttendanceWriter.close();
+
         super.onDestroy();
     }
 
@@ -446,6 +528,9 @@ public class InstructorService extends P2pService {
             public void onDnsSdTxtRecordAvailable(String fullDomain, Map record, WifiP2pDevice device) {
                 Log.i(TAG, "DnsSdTxtRecord available -" + record.toString());
                 mDeviceSdRecords.put(device.deviceAddress, record);
+                if (mRegistrationTracker.markDiscovered(device.deviceAddress)) {
+                    mScanScheduler.onNewDevice();
+                }
             }
         };
 
@@ -495,7 +580,7 @@ public class InstructorService extends P2pService {
                 // Command failed.  Check for P2P_UNSUPPORTED, ERROR, or BUSY
                 Log.e(TAG, "discoverServices Failure " + code);
 
-                if (code == WifiP2pManager.BUSY && mDeviceRegistering != null) {
+                if (code == WifiP2pManager.BUSY && mRegistrationTracker.getConnecting() != null) {
                     discoverServices();
                 } else {
                     mService.stopSelf();
@@ -524,43 +609,78 @@ public class InstructorService extends P2pService {
      * Register Student Device Methods
      **********************************************************************************************/
 
+    /**
+     * Connect to the next queued device, skipping any that cannot be connected to, or revert the
+     * wifi connection once the queue is empty
+     */
     private synchronized void beginRegistration() {
-        if (mDeviceRegistering == null && mDevicesToRegister.size() > 0) {
-            mDeviceRegistering = mDevicesToRegister.remove(0);
-            if (!connectToDevice(mDeviceRegistering)) {
-                endRegistration();
-            }
-        } else if (mDeviceRegistering == null && mDevicesToRegister.size() == 0) {
+        String deviceAddress;
+        while ((deviceAddress = mRegistrationTracker.beginNext()) != null) {
+            if (connectToDevice(deviceAddress)) return;
+            mRegistrationTracker.finish(deviceAddress, false);
+        }
+
+        if (mRegistrationTracker.isIdle()) {
             // Run out of devices, so revert wifi connection
             resetWifiConnection();
+            mScanScheduler.onQueueDrained();
         } else {
             // registering a device
         }
     }
 
-    private synchronized void endRegistration() {
-        mDeviceRegistering = null;
+    /**
+     * Mark every device registered by this instructor since the start of the day as REGISTERED
+     */
+    private void loadRegisteredDevices() {
+        long sessionStart = InstructorHandshake.startOfDay(System.currentTimeMillis());
+        Cursor c = null;
+        try {
+            SQLiteDatabase database = mDatabase.getReadableDatabase();
+            c = database.rawQuery(AttendanceDatabase.SELECT_REGISTERED_DEVICES,
+                    new String[]{mHumanReadableId, String.valueOf(sessionStart / 1000)});
+
+            while (c.moveToNext()) {
+                mRegistrationTracker.markRegistered(c.getString(0));
+            }
+            Log.i(TAG, "Resumed with " + c.getCount() + " registered devices");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (c != null) c.close();
+        }
     }
 
     private boolean connectToDevice(String deviceAddress) {
         Map<String, String> record = mDeviceSdRecords.get(deviceAddress);
+        if (record == null) {
+            Log.e(TAG, "Discovery record of " + deviceAddress + " has expired");
+            return false;
+        }
 
         if (mSavedNetworkId == -1) {
             mSavedNetworkId = mWifiManager.getConnectionInfo().getNetworkId();
         }
 
-        // Setup Wifi Configuration
-        WifiConfiguration wifiConfiguration = new WifiConfiguration();
-        wifiConfiguration.SSID = '"' + record.get(P2pService.RECORD_SSID) + '"';
-        wifiConfiguration.preSharedKey = '"' + record.get(P2pService.RECORD_PRESHARED_KEY) + '"';
-        mTempNetworkId = mWifiManager.addNetwork(wifiConfiguration);
+        // Use the network staged for this device if its record has not been replaced since
+        if (deviceAddress.equals(mStagedDevice) && record == mStagedRecord) {
+            mTempNetworkId = mStagedNetworkId;
+        } else {
+            if (mStagedNetworkId != -1) mWifiManager.removeNetwork(mStagedNetworkId);
+            mTempNetworkId = addNetwork(record);
+        }
+        mStagedDevice = null;
+        mStagedRecord = null;
+        mStagedNetworkId = -1;
 
         // Start Connection
         if (mTempNetworkId != -1) {
-            mWifiManager.disableNetwork(mTempNetworkId); // Prevent auto-connect
+            mConnectionReadiness.expect(record.get(P2pService.RECORD_SSID));
+            mAssociationDeadline.arm(deviceAddress, READY_DEADLINE_MS);
+            mAssociationStartedAt = RegistrationMetrics.start();
             mWifiManager.enableNetwork(mTempNetworkId, true); // Manually connect
 
-            Log.i(TAG, "Pending Connection to " + record.get(P2pService.RECORD_SSID));
+            Log.i(TAG, "Pending Connection to " + deviceAddress);
         } else {
             Log.e(TAG, "addNetwork Failed");
             mService.stopSelf();
@@ -569,15 +689,55 @@ public class InstructorService extends P2pService {
         return mTempNetworkId != -1; // If we could not find a networkId then it will be -1
     }
 
+    /**
+     * Stage the device to be connected to after the current one, adding its network in advance
+     */
+    private synchronized void stageNextDevice() {
+        String deviceAddress = mRegistrationTracker.stageNext();
+        if (deviceAddress == null || deviceAddress.equals(mStagedDevice)) return;
+
+        Map<String, String> record = mDeviceSdRecords.get(deviceAddress);
+        if (record == null) return; // Expired, connectToDevice() will skip it
+
+        mStagedNetworkId = addNetwork(record);
+        mStagedRecord = record;
+        mStagedDevice = deviceAddress;
+        Log.i(TAG, "Staged " + deviceAddress);
+    }
+
+    /**
+     * Add the wifi-direct group of a device as a network, without connecting to it
+     *
+     * @param record discovery record of the device
+     * @return the network ID, or -1 on failure
+     */
+    private int addNetwork(Map<String, String> record) {
+        // Setup Wifi Configuration
+        WifiConfiguration wifiConfiguration = new WifiConfiguration();
+        wifiConfiguration.SSID = '"' + record.get(P2pService.RECORD_SSID) + '"';
+        wifiConfiguration.preSharedKey = '"' + record.get(P2pService.RECORD_PRESHARED_KEY) + '"';
+        int networkId = mWifiManager.addNetwork(wifiConfiguration);
+
+        if (networkId != -1) {
+            mWifiManager.disableNetwork(networkId); // Prevent auto-connect
+        }
+        return networkId;
+    }
+
     /**********************************************************************************************
      * Utility Functions
      **********************************************************************************************/
 
     private void resetWifiConnection() {
-        // Remove the generated network config
-        if (mTempNetworkId != -1) {
-            mWifiManager.disableNetwork(mTempNetworkId);
-            mWifiManager.removeNetwork(mTempNetworkId);
+        // Remove the generated network configs
+        removeTempNetwork();
+        synchronized (this) {
+            if (mStagedNetworkId != -1) {
+                mWifiManager.removeNetwork(mStagedNetworkId);
+                mStagedNetworkId = -1;
+            }
+            mStagedDevice = null;
+            mStagedRecord = null;
         }
 
         // Revert to previous wifi connection (if any)
@@ -588,5 +748,17 @@ public class InstructorService extends P2pService {
         }
     }
 
+    /**
+     * Remove the network of the device just registered, leaving the wifi connection to whatever
+     * is connected next
+     */
+    private void removeTempNetwork() {
+        if (mTempNetworkId != -1) {
+            mWifiManager.disableNetwork(mTempNetworkId);
+            mWifiManager.removeNetwork(mTempNetworkId);
+            mTempNetworkId = -1;
+        }
+    }
+
 
 }
@@ -0,0 +1,101 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in the style of HdrHistogram. Every power of two
+ * is split into SUB_BUCKETS linear buckets, so any recorded value is reported within 1/SUB_BUCKETS
+ * (about 3%) of its true value whatever its magnitude. Recording is a single atomic increment, so
+ * it is cheap enough for hot paths and safe from any thread.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values are held in microseconds and clamped below 2^MAX_EXPONENT, about 19 hours
+     */
+    static final int MAX_EXPONENT = 36;
+    static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos latency from System.nanoTime() differences
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * @param micros latency in microseconds
+     */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        mCounts.incrementAndGet(index(value));
+        mTotal.incrementAndGet();
+
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Lost a race with another recorder, try again
+        }
+    }
+
+    public long getCount() {
+        return mTotal.get();
+    }
+
+    /**
+     * @return largest value recorded, in microseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value in microseconds that percentile of recorded values are at or below, as
+     * the upper end of its bucket, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotal.get();
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) return Math.min(highestEquivalentValue(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) mCounts.set(i, 0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Values below SUB_BUCKETS map to themselves. Above that, the band is chosen by the position of
+     * the highest set bit and the bucket within it by the next SUB_BUCKET_BITS bits.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
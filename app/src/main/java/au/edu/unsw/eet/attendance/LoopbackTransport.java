@@ -0,0 +1,240 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * In-process transport, each connection being a pair of Pipes. Ports are only meaningful within
+ * one LoopbackTransport and addresses are ignored, so any number of students can listen side by
+ * side without touching the network.
+ * <p> Pipes are selectable, so StudentServer serves these connections exactly as it serves TCP
+ * ones. An acceptor has a signal pipe with one byte written per pending connection, which keeps
+ * it ready for as long as connections are waiting. </p>
+ */
+public class LoopbackTransport implements Transport {
+
+    /**
+     * Most connections waiting to be accepted, further connects are refused
+     */
+    static final int BACKLOG = 50;
+
+    private final HashMap<Integer, LoopbackAcceptor> mAcceptors = new HashMap<>();
+    private int mNextPort = 1;
+
+    @Override
+    public synchronized Acceptor listen(int port) throws IOException {
+        if (port == 0) {
+            while (mAcceptors.containsKey(mNextPort)) mNextPort++;
+            port = mNextPort++;
+        } else if (mAcceptors.containsKey(port)) {
+            throw new IOException("Port " + port + " in use");
+        }
+
+        LoopbackAcceptor acceptor = new LoopbackAcceptor(port);
+        mAcceptors.put(port, acceptor);
+        return acceptor;
+    }
+
+    /**
+     * Connects immediately or not at all, so the timeout is never reached
+     */
+    @Override
+    public Connection connect(InetAddress address, int port, int timeoutMillis) throws IOException {
+        LoopbackAcceptor acceptor;
+        synchronized (this) {
+            acceptor = mAcceptors.get(port);
+        }
+        if (acceptor == null) throw new ConnectException("Nothing listening on " + port);
+
+        Pipe toStudent = Pipe.open();
+        Pipe toInstructor = Pipe.open();
+        PipeEndpoint endpoint = new PipeEndpoint(toStudent.source(), toInstructor.sink());
+        PipeConnection connection = new PipeConnection(toInstructor.source(), toStudent.sink());
+        if (!acceptor.offer(endpoint)) {
+            endpoint.close();
+            connection.close();
+            throw new ConnectException("Backlog of " + port + " full");
+        }
+        return connection;
+    }
+
+    private synchronized void remove(LoopbackAcceptor acceptor) {
+        mAcceptors.remove(acceptor.mPort);
+    }
+
+    class LoopbackAcceptor implements Acceptor {
+        final int mPort;
+        private final Pipe mSignal;
+        private final ByteBuffer mSignalByte = ByteBuffer.allocate(1);
+        private final ArrayDeque<PipeEndpoint> mPending = new ArrayDeque<>();
+        private boolean mClosed = false;
+
+        LoopbackAcceptor(int port) throws IOException {
+            mPort = port;
+            mSignal = Pipe.open();
+            mSignal.source().configureBlocking(false);
+            mSignal.sink().configureBlocking(false);
+        }
+
+        /**
+         * @return false if the acceptor is closed or its backlog is full
+         */
+        synchronized boolean offer(PipeEndpoint endpoint) throws IOException {
+            if (mClosed || mPending.size() >= BACKLOG) return false;
+
+            mPending.add(endpoint);
+            mSignal.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            return true;
+        }
+
+        @Override
+        public int getPort() {
+            return mPort;
+        }
+
+        @Override
+        public SelectableChannel getChannel() {
+            return mSignal.source();
+        }
+
+        @Override
+        public int getInterestOps() {
+            return SelectionKey.OP_READ;
+        }
+
+        @Override
+        public synchronized Endpoint accept() throws IOException {
+            // One signal byte per pending connection
+            mSignalByte.clear();
+            if (mSignal.source().read(mSignalByte) <= 0) return null;
+            return mPending.poll();
+        }
+
+        @Override
+        public void close() throws IOException {
+            remove(this);
+            synchronized (this) {
+                mClosed = true;
+                for (PipeEndpoint endpoint : mPending) endpoint.close();
+                mPending.clear();
+            }
+            mSignal.source().close();
+            mSignal.sink().close();
+        }
+    }
+
+    static class PipeEndpoint implements Endpoint {
+        private final Pipe.SourceChannel mSource;
+        private final Pipe.SinkChannel mSink;
+
+        PipeEndpoint(Pipe.SourceChannel source, Pipe.SinkChannel sink) throws IOException {
+            mSource = source;
+            mSink = sink;
+            mSource.configureBlocking(false);
+            mSink.configureBlocking(false);
+        }
+
+        @Override
+        public SelectableChannel getReadChannel() {
+            return mSource;
+        }
+
+        @Override
+        public SelectableChannel getWriteChannel() {
+            return mSink;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return mSource.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return mSink.write(src);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSource.close();
+            mSink.close();
+        }
+    }
+
+    /**
+     * Blocking streams over the instructor's pipes. Reads wait on a private selector so that they
+     * can time out as a socket's would.
+     */
+    static class PipeConnection implements Connection {
+        private final Pipe.SourceChannel mSource;
+        private final Pipe.SinkChannel mSink;
+        private final Selector mSelector;
+        private final OutputStream mOutputStream;
+        private volatile int mReadTimeout = 0;
+
+        private final InputStream mInputStream = new InputStream() {
+            private final byte[] mOne = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(mOne, 0, 1) == -1 ? -1 : mOne[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                int read;
+                while ((read = mSource.read(buffer)) == 0) {
+                    if (mSelector.select(mReadTimeout) == 0) throw new SocketTimeoutException("Read timed out");
+                    mSelector.selectedKeys().clear();
+                }
+                return read;
+            }
+        };
+
+        PipeConnection(Pipe.SourceChannel source, Pipe.SinkChannel sink) throws IOException {
+            mSource = source;
+            mSink = sink;
+            mSource.configureBlocking(false);
+            mSelector = Selector.open();
+            mSource.register(mSelector, SelectionKey.OP_READ);
+            mOutputStream = Channels.newOutputStream(mSink);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        @Override
+        public void setReadTimeout(int millis) {
+            mReadTimeout = millis;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSink.close();
+            mSource.close();
+            mSelector.close();
+        }
+    }
+}
@@ -3,23 +3,17 @@ package au.edu.unsw.eet.attendance;
 import android.Manifest;
 import android.app.ActivityManager;
 import android.app.Dialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Environment;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -27,7 +21,7 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
@@ -35,10 +29,12 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 public class MainActivity extends AppCompatActivity {
     public SharedPreferences mSharedPref;
@@ -49,8 +45,36 @@ public class MainActivity extends AppCompatActivity {
     public static final int STUDENT_MODE = 1;
     public int mUserMode = -1;
 
-    public ArrayList<ArrayList<String>> mHistoryArrayList = new ArrayList<>();
-    ArrayAdapter listViewAdapter = null;
+    /**
+     * Rows of the history list are loaded a page at a time, newest first
+     */
+    static final int HISTORY_PAGE_SIZE = 50;
+    static final int HISTORY_MAX_PAGES = 8;
+
+    /**
+     * Matches the format SQLite datetime() stores timestamps in
+     */
+    private static final SimpleDateFormat HISTORY_TIMESTAMP_FORMAT = createHistoryTimestampFormat();
+
+    private static SimpleDateFormat createHistoryTimestampFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    public PagedWindow<HistoryRecord> mHistoryWindow = new PagedWindow<>(
+            new PagedWindow.PageLoader<HistoryRecord>() {
+                @Override
+                public long getKey(HistoryRecord row) {
+                    return row.mRowId;
+                }
+
+                @Override
+                public void requestPage(int page, int request, long newerKey, int offset, int limit) {
+                    requestHistoryPage(page, request, newerKey, offset, limit);
+                }
+            }, HISTORY_PAGE_SIZE, HISTORY_MAX_PAGES);
+    HistoryAdapter listViewAdapter = null;
 
     /**
      * Dialog Popup that asks for the Class ID or Student ID
@@ -169,26 +193,13 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private BroadcastReceiver mMessageReceiver = new BroadcastReceiver() {
+    /**
+     * Adds records to the history as soon as they are committed, without querying the database
+     */
+    private AttendanceEventBus.Subscriber mAttendanceSubscriber = new AttendanceEventBus.Subscriber() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            // Get extra data included in the Intent
-            String message = intent.getStringExtra(P2pService.BROADCAST_MESSAGE_EXTRA);
-            Log.i("MainActivity", message);
-            /*
-            final TextView messageView = (TextView) findViewById(R.id.text_view);
-            final ScrollView messageContainer = (ScrollView) findViewById(R.id.scroll_view);
-
-            if (messageView != null && messageContainer != null) {
-                messageView.append(message + "\n");
-                messageContainer.post(new Runnable() {
-                    public void run() {
-                        messageContainer.smoothScrollTo(0, messageView.getBottom());
-                    }
-                });
-            }
-            */
-            updateListViewFromDatabase();
+        public void onAttendanceEvents(List<AttendanceEvent> events) {
+            onAttendanceRecorded(events);
         }
     };
 
@@ -205,6 +216,23 @@ public class MainActivity extends AppCompatActivity {
             mSharedPrefEditor = mSharedPref.edit();
         }
 
+        mHistoryLoader = new HistoryLoader(AttendanceDatabase.getInstance(this), HISTORY_PAGE_SIZE,
+                new HistoryLoader.Listener() {
+                    @Override
+                    public void onHistoryChanged(HistoryLoader.Diff diff) {
+                        MainActivity.this.onHistoryChanged(diff);
+                    }
+
+                    @Override
+                    public void onPageLoaded(HistoryLoader.Page page) {
+                        if (mHistoryWindow.putPage(page.mPage, page.mRequest, page.mRows)
+                                && listViewAdapter != null) {
+                            listViewAdapter.notifyDataSetChanged();
+                        }
+                    }
+                });
+        mHistoryLoader.start();
+
         if (savedInstanceState != null) {
             mUserMode = savedInstanceState.getInt(USER_MODE);
             inflateActivity();
@@ -233,21 +261,26 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        if (mMessageReceiver != null) {
-            LocalBroadcastManager.getInstance(this).registerReceiver(mMessageReceiver,
-                    new IntentFilter(P2pService.BROADCAST_MESSAGE_ACTION));
-        }
+        AttendanceEventBus.getInstance().subscribe(mAttendanceSubscriber);
+
+        // Catch up on anything recorded while paused
+        if (mUserMode != -1) updateListViewFromDatabase();
     }
 
     @Override
     protected void onPause() {
-        if (mMessageReceiver != null) {
-            LocalBroadcastManager.getInstance(this).unregisterReceiver(mMessageReceiver);
-        }
+        AttendanceEventBus.getInstance().unsubscribe(mAttendanceSubscriber);
 
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        mHistoryLoader.quit();
+
+        super.onDestroy();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle savedInstanceState) {
         // Save the user's current game state
@@ -290,10 +323,7 @@ public class MainActivity extends AppCompatActivity {
         addButtonClickHandlers();
 
         // Add adapter to ListView
-        listViewAdapter = new HistoryArrayAdapter(
-                this,
-                R.layout.list_item,
-                mHistoryArrayList);
+        listViewAdapter = new HistoryAdapter(this, R.layout.list_item);
 
         ListView listView = (ListView) findViewById(R.id.attendance_history);
         if (listView != null)
@@ -317,78 +347,173 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    class HistoryArrayAdapter extends ArrayAdapter<String> {
-        private final Context context;
-        private final ArrayList<ArrayList<String>> values;
+    class HistoryAdapter extends BaseAdapter {
+        private final LayoutInflater inflater;
         private final int layoutResourceId;
 
-        public HistoryArrayAdapter(Context context, int layoutResourceId, ArrayList values) {
-            super(context, layoutResourceId, values);
+        public HistoryAdapter(Context context, int layoutResourceId) {
+            this.inflater = LayoutInflater.from(context);
             this.layoutResourceId = layoutResourceId;
-            this.context = context;
-            this.values = values;
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            LayoutInflater inflater = (LayoutInflater) context
-                    .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            View rowView = inflater.inflate(layoutResourceId, parent, false);
+        public int getCount() {
+            return mHistoryWindow.getCount();
+        }
+
+        @Override
+        public HistoryRecord getItem(int position) {
+            return mHistoryWindow.get(position);
+        }
 
-            TextView instructorView = (TextView) rowView.findViewById(R.id.list_item_instructor);
-            TextView studentView = (TextView) rowView.findViewById(R.id.list_item_student);
-            TextView dateView = (TextView) rowView.findViewById(R.id.list_item_datetime);
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            ViewHolder holder;
+            if (convertView == null) {
+                convertView = inflater.inflate(layoutResourceId, parent, false);
+
+                holder = new ViewHolder();
+                holder.instructorView = (TextView) convertView.findViewById(R.id.list_item_instructor);
+                holder.studentView = (TextView) convertView.findViewById(R.id.list_item_student);
+                holder.dateView = (TextView) convertView.findViewById(R.id.list_item_datetime);
+                convertView.setTag(holder);
+            } else {
+                holder = (ViewHolder) convertView.getTag();
+            }
 
-            instructorView.setText(values.get(position).get(0));
-            studentView.setText(values.get(position).get(1));
-            dateView.setText(values.get(position).get(2));
+            HistoryRecord record = getItem(position);
+            holder.instructorView.setText(record != null ? record.mInstructorId : null);
+            holder.studentView.setText(record != null ? record.mStudentId : null);
+            holder.dateView.setText(record != null ? record.mTimestamp : null);
 
-            return rowView;
+            return convertView;
         }
     }
 
+    /**
+     * Views of a recycled history row
+     */
+    static class ViewHolder {
+        TextView instructorView;
+        TextView studentView;
+        TextView dateView;
+    }
+
+    /**
+     * Highest ROWID counted into mHistoryWindow, and the user and mode it was loaded for
+     */
+    private long mHistoryWatermark = 0;
+    private String mHistoryUserId = null;
+    private int mHistoryUserMode = -1;
+
+    /**
+     * Watermark and row count of the last Diff applied. Every row at or below this watermark is
+     * counted, which is not true of rows appended from events if one was missed, so refreshes are
+     * always asked for from here.
+     */
+    private long mHistoryLoadedWatermark = 0;
+    private int mHistoryLoadedCount = 0;
+
+    /**
+     * Queries the database off the main thread and reports only what has changed
+     */
+    HistoryLoader mHistoryLoader;
+
+    /**
+     * Ask for the records added since the last update. Requests are coalesced and answered
+     * asynchronously in onHistoryChanged().
+     */
     private void updateListViewFromDatabase() {
         Log.v("MainActivity", "updateListViewFromDatabase()");
-        SQLiteDatabase database = null;
-        Cursor c = null;
-        try {
-            database = openOrCreateDatabase(P2pService.DATABASE_NAME, MODE_PRIVATE, null);
-            String sql = null;
-
-            String humanReadableId = mSharedPref.getString(P2pService.HUMAN_READABLE_ID, "");
-
-            if (mUserMode == STUDENT_MODE) {
-                sql = String.format(
-                        "SELECT * FROM student_attendance " +
-                                "WHERE student_id = '%s' " +
-                                "ORDER BY ROWID DESC;",
-                        humanReadableId);
-            } else {
-                sql = String.format(
-                        "SELECT * FROM instructor_attendance " +
-                                "WHERE instructor_id = '%s' " +
-                                "ORDER BY ROWID DESC;",
-                        humanReadableId);
-            }
-            c = database.rawQuery(sql, null);
-
-            mHistoryArrayList.clear();
-            while (c.moveToNext()) {
-                ArrayList<String> stringList = new ArrayList<>();
-                stringList.add(c.getString(c.getColumnIndex("instructor_id")));
-                stringList.add(c.getString(c.getColumnIndex("student_id")));
-                stringList.add(c.getString(c.getColumnIndex("timestamp")));
-                mHistoryArrayList.add(stringList);
+        String userId = mSharedPref.getString(P2pService.HUMAN_READABLE_ID, "");
+        if (userId.equals(mHistoryUserId) && mUserMode == mHistoryUserMode) {
+            mHistoryLoader.requestRefresh(userId, mUserMode, mHistoryLoadedWatermark, mHistoryLoadedCount);
+        } else {
+            mHistoryLoader.requestRefresh(userId, mUserMode, 0, 0);
+        }
+    }
+
+    /**
+     * Grow the history window by the records the loader found. The window is emptied first if the
+     * user ID or mode has changed since it was loaded. Rows appended from events since the last
+     * Diff are replaced by the Diff, as an event missed before them would leave the window short.
+     * A Diff computed against an older load than the window now has is dropped and asked for again.
+     */
+    private void onHistoryChanged(HistoryLoader.Diff diff) {
+        boolean sameUser = diff.mUserId.equals(mHistoryUserId) && diff.mUserMode == mHistoryUserMode;
+        boolean overtaken = sameUser && diff.mWatermark < mHistoryWatermark;
+        if (diff.mBaseWatermark == 0) {
+            // Loaded from scratch
+            mHistoryWindow.reset(0);
+            mHistoryUserId = diff.mUserId;
+            mHistoryUserMode = diff.mUserMode;
+        } else if (!sameUser || diff.mBaseWatermark != mHistoryLoadedWatermark) {
+            updateListViewFromDatabase();
+            return;
+        } else if (mHistoryWindow.getCount() != mHistoryLoadedCount) {
+            // Back to the rows the Diff was computed against
+            mHistoryWindow.reset(mHistoryLoadedCount);
+        }
+
+        mHistoryWatermark = diff.mWatermark;
+        mHistoryWindow.append(diff.mAdded, diff.mNewestPage);
+        mHistoryLoadedWatermark = mHistoryWatermark;
+        mHistoryLoadedCount = mHistoryWindow.getCount();
+
+        if (listViewAdapter != null) listViewAdapter.notifyDataSetChanged();
+
+        // Records from events applied while this load was running are not in it
+        if (overtaken) updateListViewFromDatabase();
+    }
+
+    /**
+     * Append committed records belonging to the history being shown. Records at or below the
+     * watermark have already been counted by the loader and are skipped.
+     */
+    private void onAttendanceRecorded(List<AttendanceEvent> events) {
+        String table = HistoryLoader.historyTable(mHistoryUserMode);
+        ArrayList<HistoryRecord> records = null;
+        boolean missed = false;
+
+        for (AttendanceEvent event : events) {
+            if (event.mPhase != AttendanceEvent.Phase.RECORDED) continue;
+
+            if (mHistoryUserId == null || mHistoryUserMode != mUserMode) {
+                missed = true;
+                continue;
             }
-            Log.v("MainActivity", mHistoryArrayList.toString());
+            if (!event.mTable.equals(table) || event.mRowId <= mHistoryWatermark) continue;
+
+            String userId = mHistoryUserMode == STUDENT_MODE ? event.mStudentId : event.mInstructorId;
+            if (!userId.equals(mHistoryUserId)) continue;
 
+            if (records == null) records = new ArrayList<>();
+            records.add(0, new HistoryRecord(event.mInstructorId, event.mStudentId,
+                    HISTORY_TIMESTAMP_FORMAT.format(new Date(event.mTimestamp)), event.mRowId));
+            mHistoryWatermark = event.mRowId;
+        }
+
+        if (records != null) {
+            mHistoryWindow.appendRows(records);
             if (listViewAdapter != null) listViewAdapter.notifyDataSetChanged();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            if (c != null) c.close();
-            if (database != null) database.close();
         }
+
+        // Not loaded yet or loaded for another mode, let the loader decide
+        if (missed && mUserMode != -1) updateListViewFromDatabase();
+    }
+
+    /**
+     * Read one page of the history on the loader's thread, limited to the records counted into the
+     * window so far. Its rows show blank until onPageLoaded() delivers them.
+     */
+    private void requestHistoryPage(int page, int request, long newerKey, int offset, int limit) {
+        mHistoryLoader.requestPage(mHistoryUserId, mHistoryUserMode, mHistoryWatermark,
+                page, request, newerKey, offset, limit);
     }
 
     /* Checks if external storage is available for read and write */
@@ -400,27 +525,69 @@ public class MainActivity extends AppCompatActivity {
         return false;
     }
 
-    private void exportToCsv() {
+    /**
+     * Export currently running, if any
+     */
+    CsvExportTask mExportTask = null;
+
+    /**
+     * Export the whole history of the current user on a background thread, or cancel the export
+     * if one is already running
+     *
+     * @param gzip compress the exported file
+     */
+    private void exportToCsv(boolean gzip) {
+        if (mExportTask != null) {
+            mExportTask.cancelExport();
+            return;
+        }
+
         if (isExternalStorageWritable() == false) {
             Toast.makeText(this, "Could not Write to External Storage!", Toast.LENGTH_SHORT).show();
             return;
         }
-        try {
-            // Name file after instructor or student id
-            String filename = mSharedPref.getString(P2pService.HUMAN_READABLE_ID, null);
-            File file = new File(getExternalFilesDir(null), filename);
-
-            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(file));
-            for (ArrayList<String> record : mHistoryArrayList) {
-                outputStreamWriter.write(record.get(0) + "," + record.get(1) + "," + record.get(2) + "\n");
-            }
 
-            outputStreamWriter.close();
-            Toast.makeText(this, "File Written to External Storage!", Toast.LENGTH_SHORT).show();
-        } catch (IOException e) {
-            Log.e("Exception", "File write failed: " + e.toString());
-            Toast.makeText(this, "Could not Write to External Storage!", Toast.LENGTH_SHORT).show();
+        // Name file after instructor or student id, and export that id's history whether or not
+        // the list has loaded it yet
+        String userId = mSharedPref.getString(P2pService.HUMAN_READABLE_ID, "");
+        if (mUserMode == -1 || userId.isEmpty()) {
+            Toast.makeText(this, "No ID to Export", Toast.LENGTH_SHORT).show();
+            return;
         }
+        String filename = userId + (gzip ? ".csv.gz" : ".csv");
+        File file = new File(getExternalFilesDir(null), filename);
+
+        String sql = "SELECT instructor_id, student_id, timestamp FROM " + HistoryLoader.historyTable(mUserMode) + " " +
+                "WHERE " + HistoryLoader.historyUserColumn(mUserMode) + " = ? ORDER BY ROWID DESC;";
+
+        mExportTask = new CsvExportTask(AttendanceDatabase.getInstance(this), sql,
+                new String[]{userId}, file, gzip, new CsvExportTask.Listener() {
+            @Override
+            public void onExportProgress(int rowsWritten, int totalRows) {
+                Button exportCsvButton = (Button) findViewById(R.id.csv_export);
+                if (exportCsvButton != null && totalRows > 0) {
+                    exportCsvButton.setText("Cancel Export (" + (100L * rowsWritten / totalRows) + "%)");
+                }
+            }
+
+            @Override
+            public void onExportFinished(File file, int rowsWritten) {
+                mExportTask = null;
+
+                Button exportCsvButton = (Button) findViewById(R.id.csv_export);
+                if (exportCsvButton != null) exportCsvButton.setText("Export to CSV");
+
+                if (rowsWritten >= 0) {
+                    Toast.makeText(MainActivity.this, "File Written to External Storage!", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(MainActivity.this, "Export Cancelled or Failed", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        mExportTask.execute();
+
+        Button exportCsvButton = (Button) findViewById(R.id.csv_export);
+        if (exportCsvButton != null) exportCsvButton.setText("Cancel Export");
     }
 
     private void addButtonClickHandlers() {
@@ -461,11 +628,31 @@ public class MainActivity extends AppCompatActivity {
             });
         }
 
+        // Debug screen for registration latencies, opened by a long press on the history title
+        TextView historyTitle = (TextView) findViewById(R.id.attendance_history_title);
+        if (historyTitle != null) {
+            historyTitle.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    startActivity(new Intent(v.getContext(), MetricsActivity.class));
+                    return true;
+                }
+            });
+        }
+
         if (exportCsvButton != null) {
             exportCsvButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    exportToCsv();
+                    exportToCsv(false);
+                }
+            });
+            // Long press to export a gzip-compressed file
+            exportCsvButton.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    exportToCsv(true);
+                    return true;
                 }
             });
         }
@@ -0,0 +1,16 @@
+package au.edu.unsw.eet.attendance;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs tasks on the main looper
+ */
+public class MainThreadScheduler implements AttendanceEventBus.Scheduler {
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+}
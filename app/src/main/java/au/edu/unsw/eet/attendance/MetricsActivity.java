@@ -0,0 +1,94 @@
+package au.edu.unsw.eet.attendance;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Debug screen showing the p50, p95 and p99 latency of each registration phase in milliseconds,
+ * with the option of saving the table to a file.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    static final String METRICS_FILE_NAME = "registration_metrics.txt";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        Button refreshButton = (Button) findViewById(R.id.metrics_refresh);
+        Button saveButton = (Button) findViewById(R.id.metrics_save);
+        Button resetButton = (Button) findViewById(R.id.metrics_reset);
+
+        if (refreshButton != null) {
+            refreshButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showMetrics();
+                }
+            });
+        }
+
+        if (saveButton != null) {
+            saveButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    saveMetrics();
+                }
+            });
+        }
+
+        if (resetButton != null) {
+            resetButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    RegistrationMetrics.getInstance().reset();
+                    showMetrics();
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics() {
+        TextView metricsView = (TextView) findViewById(R.id.metrics_text);
+        if (metricsView == null) return;
+
+        StringWriter writer = new StringWriter();
+        try {
+            RegistrationMetrics.getInstance().dump(writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        metricsView.setText(writer.toString());
+    }
+
+    private void saveMetrics() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            Toast.makeText(this, "External storage is not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File file = new File(directory, METRICS_FILE_NAME);
+        try {
+            RegistrationMetrics.getInstance().dumpToFile(file);
+            Toast.makeText(this, "Saved to " + file.getPath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, "Could not save metrics", Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -11,7 +11,6 @@ import android.net.wifi.p2p.WifiP2pManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.NotificationCompat;
 import android.util.Log;
 import android.widget.Toast;
@@ -27,7 +26,10 @@ public class P2pService extends Service {
     public static final String RECORD_SERVER_PORT = "listenport";
     public static final String RECORD_SERVER_ADDRESS = "host";
 
-    public static final String DATABASE_NAME = "attendance";
+    /**
+     * Highest handshake protocol the student speaks, absent for text only, see HandshakeCodec
+     */
+    public static final String RECORD_PROTOCOL = "proto";
 
     public static final String STUDENT_MESSAGE_PREFIX = "Student:";
     public static final String INSTRUCTOR_MESSAGE_PREFIX = "Instructor:";
@@ -38,6 +40,11 @@ public class P2pService extends Service {
     public static final String HUMAN_READABLE_ID = "HUMAN_READABLE_ID";
     String mHumanReadableId;
 
+    /**
+     * Shared attendance database, owned by the process rather than this service
+     */
+    AttendanceDatabase mDatabase;
+
     /**
      * Notification
      */
@@ -91,6 +98,8 @@ public class P2pService extends Service {
         Toast.makeText(this, "Service Started", Toast.LENGTH_SHORT).show();
         Log.v(TAG, "onCreate()");
 
+        mDatabase = AttendanceDatabase.getInstance(this);
+
         mBuilder = new NotificationCompat.Builder(this);
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 
@@ -170,18 +179,15 @@ public class P2pService extends Service {
     }
 
     /**********************************************************************************************
-     * Local Broadcast Message
+     * Attendance Events
      **********************************************************************************************/
 
-    public static final String BROADCAST_MESSAGE_ACTION = P2pService.class.getName() + "BROADCAST_MESSAGE_ACTION";
-    public static final String BROADCAST_MESSAGE_EXTRA = P2pService.class.getName() + "BROADCAST_MESSAGE_EXTRA";
-
-    void sendMessage(String message) {
-        Log.v(TAG, "Broadcasting: " + message);
-        Intent intent = new Intent(BROADCAST_MESSAGE_ACTION);
-        intent.putExtra(BROADCAST_MESSAGE_EXTRA, message);
-
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    /**
+     * Publish an event to subscribers in this process, delivered in batches on the main thread
+     */
+    void postEvent(AttendanceEvent event) {
+        Log.v(TAG, "Posting: " + event);
+        AttendanceEventBus.getInstance().post(event);
     }
 
 }
@@ -0,0 +1,207 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Windowed view over a list that only grows at its newest end, such as an attendance history
+ * ordered newest first. Rows are loaded a page at a time on demand and at most maxPages pages are
+ * held, so memory stays constant however long the list is, apart from one key per page loaded.
+ * <p> Pages are numbered from the oldest row, which does not move when newer rows arrive, so
+ * cached pages stay valid across appends. Only the newest page can be partial, it is dropped when
+ * rows are counted in by append() and extended in place by appendRows(). </p>
+ * <p> Pages load asynchronously. get() asks the loader for a missing page and returns null until
+ * the rows are handed back with putPage(). Each page is asked for with the key of the oldest row
+ * of the page above it, so that the loader can seek to the page instead of skipping rows. </p>
+ *
+ * @param <T> the type of row
+ */
+public class PagedWindow<T> {
+
+    /**
+     * Key passed for the newest page, and for a page whose newer neighbour has not been loaded
+     */
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    /**
+     * Source of rows for the window
+     */
+    public interface PageLoader<T> {
+        /**
+         * @return key of a row, decreasing from the newest row to the oldest
+         */
+        long getKey(T row);
+
+        /**
+         * Start loading a page, and hand the rows to putPage() once they are read. Must not call
+         * putPage() before returning.
+         *
+         * @param page     page number to pass to putPage()
+         * @param request  request number to pass to putPage()
+         * @param newerKey key of the oldest row of the next newer page, the page being the limit
+         *                 rows just below it, or NO_KEY to count the page by offset
+         * @param offset   number of newer rows to skip, counting from the newest row in the window
+         * @param limit    number of rows to return, newest first
+         */
+        void requestPage(int page, int request, long newerKey, int offset, int limit);
+    }
+
+    private final PageLoader<T> mLoader;
+    private final int mPageSize;
+    private final Map<Integer, List<T>> mPages;
+
+    /**
+     * Key of the oldest row of every page loaded, kept after the page itself is evicted
+     */
+    private final Map<Integer, Long> mOldestKeys = new HashMap<>();
+
+    /**
+     * Request number of each page being loaded. A page no longer listed here, or listed under a
+     * later request, has changed since it was asked for and its rows are dropped.
+     */
+    private final Map<Integer, Integer> mPending = new HashMap<>();
+    private int mRequests = 0;
+
+    private int mCount = 0;
+
+    public PagedWindow(PageLoader<T> loader, int pageSize, final int maxPages) {
+        mLoader = loader;
+        mPageSize = pageSize;
+
+        // Access-ordered so that the least recently viewed page is evicted first
+        mPages = new LinkedHashMap<Integer, List<T>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Drop every cached page and start again with count rows
+     */
+    public void reset(int count) {
+        mPages.clear();
+        mOldestKeys.clear();
+        mPending.clear();
+        mCount = count;
+    }
+
+    /**
+     * Account for rows added at the newest end of the list
+     */
+    public void append(int added) {
+        append(added, null);
+    }
+
+    /**
+     * Account for rows added at the newest end of the list, supplying the newest page so that it
+     * does not have to be loaded again
+     *
+     * @param newestPage rows of the newest page after the append, newest first, or null
+     */
+    public void append(int added, List<T> newestPage) {
+        if (added > 0) {
+            if (mCount % mPageSize != 0) {
+                // Newest page was partial and is now stale
+                mPages.remove(mCount / mPageSize);
+                mPending.remove(mCount / mPageSize);
+            }
+            mCount += added;
+        }
+
+        if (newestPage != null && mCount > 0) {
+            int page = (mCount - 1) / mPageSize;
+            mPending.remove(page);
+            hold(page, new ArrayList<T>(newestPage));
+        }
+    }
+
+    /**
+     * Add rows whose contents are already known at the newest end of the list. They are added to
+     * the newest page if it is held, so showing them needs no load.
+     *
+     * @param rows the new rows, newest first
+     */
+    public void appendRows(List<T> rows) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            int page = mCount / mPageSize;
+            if (mCount % mPageSize == 0) {
+                List<T> newestPage = new ArrayList<T>(mPageSize);
+                newestPage.add(rows.get(i));
+                mPages.put(page, newestPage);
+                mOldestKeys.put(page, mLoader.getKey(rows.get(i)));
+            } else {
+                List<T> newestPage = mPages.get(page);
+                if (newestPage != null) newestPage.add(0, rows.get(i));
+                mPending.remove(page); // A load under way would miss the row
+            }
+            mCount++;
+        }
+    }
+
+    /**
+     * @param position index into the list, 0 being the newest row
+     * @return the row, or null while its page is being loaded
+     */
+    public T get(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position " + position + " count " + mCount);
+        }
+
+        int ordinal = mCount - 1 - position; // Index counting from the oldest row
+        int page = ordinal / mPageSize;
+        int pageStart = page * mPageSize;
+        int pageEnd = Math.min(pageStart + mPageSize, mCount);
+
+        List<T> rows = mPages.get(page);
+        if (rows == null) {
+            if (!mPending.containsKey(page)) {
+                Long newerKey = pageEnd < mCount ? mOldestKeys.get(page + 1) : null;
+                int request = ++mRequests;
+                mPending.put(page, request);
+                mLoader.requestPage(page, request, newerKey != null ? newerKey : NO_KEY,
+                        mCount - pageEnd, pageEnd - pageStart);
+            }
+            return null;
+        }
+
+        int index = pageEnd - 1 - ordinal; // Rows within a page are newest first
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    /**
+     * Hold the rows of a page asked for by get()
+     *
+     * @return false if the page has changed since it was asked for and the rows were dropped
+     */
+    public boolean putPage(int page, int request, List<T> rows) {
+        Integer pending = mPending.get(page);
+        if (pending == null || pending != request) return false;
+
+        mPending.remove(page);
+        hold(page, new ArrayList<T>(rows));
+        return true;
+    }
+
+    private void hold(int page, List<T> rows) {
+        mPages.put(page, rows);
+        if (rows.size() == Math.min(mPageSize, mCount - page * mPageSize)) {
+            mOldestKeys.put(page, mLoader.getKey(rows.get(rows.size() - 1)));
+        }
+    }
+
+    /**
+     * @return number of pages currently held
+     */
+    int getPageCount() {
+        return mPages.size();
+    }
+}
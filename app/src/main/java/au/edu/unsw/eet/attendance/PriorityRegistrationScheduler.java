@@ -0,0 +1,58 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Connects to the devices most likely to register first. A candidate's score is its signal level,
+ * less a penalty for every earlier failure and for being below WEAK_LEVEL_DBM, plus credit for the
+ * time it has waited so that weak devices are still reached eventually.
+ * <p> Every candidate gains credit for waiting at the same rate, so the order between them never
+ * changes once queued and a plain heap keyed at queue time is enough. </p>
+ */
+public class PriorityRegistrationScheduler implements RegistrationScheduler {
+
+    /**
+     * Below this level connections usually run out of retries
+     */
+    static final int WEAK_LEVEL_DBM = -80;
+    static final double WEAK_PENALTY_DB = 20;
+    static final double FAILURE_PENALTY_DB = 15;
+
+    /**
+     * Credit for waiting, 30 dB a minute
+     */
+    static final double WAIT_CREDIT_DB_PER_MS = 30.0 / (60 * 1000);
+
+    private final PriorityQueue<Candidate> mQueue = new PriorityQueue<Candidate>(16, new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate lhs, Candidate rhs) {
+            return Double.compare(key(rhs), key(lhs)); // Highest score first
+        }
+    });
+
+    /**
+     * Score of the candidate less the wait credit common to every candidate at the time of polling
+     */
+    static double key(Candidate candidate) {
+        double key = candidate.mLevel - FAILURE_PENALTY_DB * candidate.mFailures
+                - WAIT_CREDIT_DB_PER_MS * candidate.mQueuedAt;
+        if (candidate.mLevel < WEAK_LEVEL_DBM) key -= WEAK_PENALTY_DB;
+        return key;
+    }
+
+    @Override
+    public void add(Candidate candidate) {
+        mQueue.add(candidate);
+    }
+
+    @Override
+    public Candidate poll() {
+        return mQueue.poll();
+    }
+
+    @Override
+    public int size() {
+        return mQueue.size();
+    }
+}
@@ -0,0 +1,140 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+
+/**
+ * Process-wide latency histograms for each phase of a registration, on both the instructor and
+ * student side. Phases are timed with System.nanoTime(), which is monotonic.
+ */
+public class RegistrationMetrics {
+
+    public enum Phase {
+        /**
+         * Instructor: discoverServices() until a new device or the end of the discovery window
+         */
+        DISCOVERY,
+
+        /**
+         * Instructor: startScan() until the results are matched
+         */
+        SCAN,
+
+        /**
+         * Instructor: enableNetwork() until the network state reports connected
+         */
+        ASSOCIATE,
+
+        /**
+         * Instructor: connected until the expected network is usable
+         */
+        READY,
+
+        /**
+         * Instructor: all socket connect attempts
+         */
+        SOCKET_CONNECT,
+
+        /**
+         * Instructor: sending the instructor message until the student message is read
+         */
+        EXCHANGE,
+
+        /**
+         * Instructor: committing one batch of attendance records
+         */
+        DB_WRITE,
+
+        /**
+         * Instructor: removing the network until the next device is associating or wifi reverted
+         */
+        TEARDOWN,
+
+        /**
+         * Instructor: enableNetwork() until teardown is complete
+         */
+        REGISTRATION,
+
+        /**
+         * Student: accepting a connection until the reply is sent
+         */
+        STUDENT_EXCHANGE,
+
+        /**
+         * Student: inserting the attendance record
+         */
+        STUDENT_INSERT
+    }
+
+    private static RegistrationMetrics sInstance;
+
+    public static synchronized RegistrationMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new RegistrationMetrics();
+        }
+        return sInstance;
+    }
+
+    private final EnumMap<Phase, LatencyHistogram> mHistograms = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+
+    RegistrationMetrics() {
+        for (Phase phase : Phase.values()) {
+            mHistograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @return the start of a phase, to be passed to record()
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a phase that started at the given time and ends now
+     *
+     * @param startNanos value of start() when the phase began
+     */
+    public void record(Phase phase, long startNanos) {
+        mHistograms.get(phase).recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return mHistograms.get(phase);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms.values()) histogram.reset();
+    }
+
+    /**
+     * Write a table of the count, p50, p95, p99 and max of every phase, in milliseconds
+     */
+    public void dump(Writer writer) throws IOException {
+        writer.write(String.format(Locale.US, "%-16s %7s %9s %9s %9s %9s%n",
+                "phase", "count", "p50", "p95", "p99", "max"));
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = mHistograms.get(phase);
+            writer.write(String.format(Locale.US, "%-16s %7d %9.1f %9.1f %9.1f %9.1f%n", phase,
+                    histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(95) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getMax() / 1000.0));
+        }
+        writer.flush();
+    }
+
+    public void dumpToFile(File file) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package au.edu.unsw.eet.attendance;
+
+/**
+ * Decides the order in which queued student devices are connected to, see RegistrationTracker.
+ */
+public interface RegistrationScheduler {
+
+    /**
+     * A queued device and what is known about its chances of registering
+     */
+    class Candidate {
+        final String mDeviceAddress;
+
+        /**
+         * Signal level of the device's group in the latest scan, in dBm
+         */
+        final int mLevel;
+
+        /**
+         * Number of earlier connections to the device that failed
+         */
+        final int mFailures;
+
+        /**
+         * Time the device was queued, in milliseconds
+         */
+        final long mQueuedAt;
+
+        public Candidate(String deviceAddress, int level, int failures, long queuedAt) {
+            mDeviceAddress = deviceAddress;
+            mLevel = level;
+            mFailures = failures;
+            mQueuedAt = queuedAt;
+        }
+    }
+
+    void add(Candidate candidate);
+
+    /**
+     * @return the next device to connect to, or null if none are queued
+     */
+    Candidate poll();
+
+    int size();
+}
@@ -0,0 +1,206 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Registration state of every student device the instructor knows of, keyed by device address.
+ * Lookups and transitions are constant time, so the work per scan grows only with the number of
+ * networks in the scan and not with the size of the class.
+ * <p> A device moves DISCOVERED -> VISIBLE -> QUEUED -> CONNECTING and then to REGISTERED, or to
+ * FAILED from where a later scan can make it VISIBLE again. Only one device is CONNECTING at a
+ * time. The order in which QUEUED devices are connected to is left to a RegistrationScheduler.
+ * </p>
+ * <p> The next device can be staged while another is connecting, so that its connection can be
+ * prepared in advance. A staged device stays QUEUED and is the one beginNext() returns. </p>
+ */
+public class RegistrationTracker {
+
+    public enum State {
+        /**
+         * Service discovery record received
+         */
+        DISCOVERED,
+
+        /**
+         * Network seen in the scan being processed, not yet queued
+         */
+        VISIBLE,
+
+        /**
+         * Waiting for a connection
+         */
+        QUEUED,
+
+        /**
+         * Connecting or connected to the device's group
+         */
+        CONNECTING,
+
+        /**
+         * Handshake complete, the device is never connected to again
+         */
+        REGISTERED,
+
+        /**
+         * Connection or handshake failed
+         */
+        FAILED
+    }
+
+    private final HashMap<String, State> mStates = new HashMap<String, State>();
+
+    /**
+     * Signal level in the latest scan and number of failed connections, per device
+     */
+    private final HashMap<String, Integer> mLevels = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mFailures = new HashMap<String, Integer>();
+
+    /**
+     * Devices in state VISIBLE, in the order they were seen
+     */
+    private final LinkedHashSet<String> mVisible = new LinkedHashSet<String>();
+
+    /**
+     * Devices in state QUEUED
+     */
+    private final RegistrationScheduler mScheduler;
+
+    private String mConnecting = null;
+    private String mStaged = null;
+
+    /**
+     * Connect to devices in the order they were queued
+     */
+    public RegistrationTracker() {
+        this(new FifoRegistrationScheduler());
+    }
+
+    public RegistrationTracker(RegistrationScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public synchronized State getState(String deviceAddress) {
+        return mStates.get(deviceAddress);
+    }
+
+    /**
+     * Note a device found by service discovery, no effect if it is already known
+     *
+     * @return true if the device was not known before
+     */
+    public synchronized boolean markDiscovered(String deviceAddress) {
+        if (mStates.containsKey(deviceAddress)) return false;
+
+        mStates.put(deviceAddress, State.DISCOVERED);
+        return true;
+    }
+
+    /**
+     * Note a device registered in an earlier run of the service. Call before anything is queued.
+     */
+    public synchronized void markRegistered(String deviceAddress) {
+        mStates.put(deviceAddress, State.REGISTERED);
+        mVisible.remove(deviceAddress);
+    }
+
+    /**
+     * Note that a device's network is in range
+     *
+     * @param level signal level of the network in dBm
+     * @return true if the device is now VISIBLE, false if it is already queued, connecting or
+     * registered
+     */
+    public synchronized boolean markVisible(String deviceAddress, int level) {
+        State state = mStates.get(deviceAddress);
+        if (state != null && state != State.DISCOVERED && state != State.FAILED) return false;
+
+        mLevels.put(deviceAddress, level);
+        mStates.put(deviceAddress, State.VISIBLE);
+        mVisible.add(deviceAddress);
+        return true;
+    }
+
+    /**
+     * Queue every VISIBLE device, in the order they were seen, once a scan has been processed
+     *
+     * @param now current time in milliseconds
+     * @return number of devices queued
+     */
+    public synchronized int queueVisible(long now) {
+        int queued = mVisible.size();
+        for (String deviceAddress : mVisible) {
+            mStates.put(deviceAddress, State.QUEUED);
+            mScheduler.add(new RegistrationScheduler.Candidate(deviceAddress, mLevels.get(deviceAddress),
+                    getFailures(deviceAddress), now));
+        }
+        mVisible.clear();
+        return queued;
+    }
+
+    /**
+     * Take the device chosen by the scheduler and mark it CONNECTING
+     *
+     * @return the device address, or null if a device is already connecting or none are queued
+     */
+    public synchronized String beginNext() {
+        if (mConnecting != null) return null;
+
+        if (mStaged != null) {
+            mConnecting = mStaged;
+            mStaged = null;
+        } else if (mScheduler.size() > 0) {
+            mConnecting = mScheduler.poll().mDeviceAddress;
+        } else {
+            return null;
+        }
+        mStates.put(mConnecting, State.CONNECTING);
+        return mConnecting;
+    }
+
+    /**
+     * Take the device chosen by the scheduler to be connected to after the current one
+     *
+     * @return the staged device address, or null if none are queued
+     */
+    public synchronized String stageNext() {
+        if (mStaged == null && mScheduler.size() > 0) {
+            mStaged = mScheduler.poll().mDeviceAddress;
+        }
+        return mStaged;
+    }
+
+    /**
+     * End the connection to a device started by beginNext()
+     *
+     * @param registered true if the handshake completed
+     */
+    public synchronized void finish(String deviceAddress, boolean registered) {
+        mStates.put(deviceAddress, registered ? State.REGISTERED : State.FAILED);
+        if (!registered) mFailures.put(deviceAddress, getFailures(deviceAddress) + 1);
+        if (deviceAddress.equals(mConnecting)) mConnecting = null;
+    }
+
+    /**
+     * @return the device being connected to, or null
+     */
+    public synchronized String getConnecting() {
+        return mConnecting;
+    }
+
+    public synchronized int getQueuedCount() {
+        return mScheduler.size() + (mStaged != null ? 1 : 0);
+    }
+
+    public synchronized int getFailures(String deviceAddress) {
+        Integer failures = mFailures.get(deviceAddress);
+        return failures == null ? 0 : failures;
+    }
+
+    /**
+     * @return true if no device is connecting or queued, so it is safe to scan
+     */
+    public synchronized boolean isIdle() {
+        return mConnecting == null && mStaged == null && mScheduler.size() == 0;
+    }
+}
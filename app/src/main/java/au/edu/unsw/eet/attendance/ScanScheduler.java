@@ -0,0 +1,121 @@
+package au.edu.unsw.eet.attendance;
+
+/**
+ * Decides when the instructor next runs service discovery and a wifi scan. Scans run as soon as
+ * the registration queue drains or a new device is discovered, and back off exponentially while
+ * scans turn up nobody new.
+ * <p> The scan thread blocks in awaitNextScan() and awaitDiscovery(), every other method is an
+ * event reported from a receiver or callback and never blocks. </p>
+ */
+public class ScanScheduler {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = ScanScheduler.class.getSimpleName();
+
+    static final long MIN_BACKOFF_MS = 3 * 1000;
+    static final long MAX_BACKOFF_MS = 60 * 1000;
+
+    /**
+     * Longest wait for service discovery records before scanning anyway
+     */
+    static final long DISCOVERY_WINDOW_MS = 3 * 1000;
+
+    private final RegistrationTracker mTracker;
+    private final long mMinBackoff;
+    private final long mMaxBackoff;
+    private final long mDiscoveryWindow;
+
+    private long mBackoff;
+    private long mNextScanAt = 0;
+    private int mNewDevices = 0;
+
+    public ScanScheduler(RegistrationTracker tracker) {
+        this(tracker, MIN_BACKOFF_MS, MAX_BACKOFF_MS, DISCOVERY_WINDOW_MS);
+    }
+
+    public ScanScheduler(RegistrationTracker tracker, long minBackoff, long maxBackoff, long discoveryWindow) {
+        mTracker = tracker;
+        mMinBackoff = minBackoff;
+        mMaxBackoff = maxBackoff;
+        mDiscoveryWindow = discoveryWindow;
+        mBackoff = minBackoff;
+    }
+
+    /**
+     * Block until no device is queued or connecting and the backoff has elapsed
+     */
+    public synchronized void awaitNextScan() throws InterruptedException {
+        while (true) {
+            if (!mTracker.isIdle()) {
+                wait(mMaxBackoff); // Woken by onQueueDrained(), bounded in case it is missed
+                continue;
+            }
+
+            long remaining = mNextScanAt - System.currentTimeMillis();
+            if (remaining <= 0) return;
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Block until a new device is discovered or the discovery window ends, call once service
+     * discovery has been started
+     */
+    public synchronized void awaitDiscovery() throws InterruptedException {
+        mNewDevices = 0;
+        long end = System.currentTimeMillis() + mDiscoveryWindow;
+        long remaining;
+        while (mNewDevices == 0 && (remaining = end - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+    }
+
+    /**
+     * A scan has been requested. Should its results never arrive the next scan is still run, after
+     * the longest backoff.
+     */
+    public synchronized void onScanStarted() {
+        mNextScanAt = System.currentTimeMillis() + mMaxBackoff;
+    }
+
+    /**
+     * Scan results have been delivered and matched
+     *
+     * @param queued number of devices queued from them
+     */
+    public synchronized void onScanResults(int queued) {
+        mBackoff = queued > 0 ? mMinBackoff : Math.min(mBackoff * 2, mMaxBackoff);
+        mNextScanAt = System.currentTimeMillis() + mBackoff;
+        notifyAll();
+    }
+
+    /**
+     * A device not seen before has been discovered, so scan again soon
+     */
+    public synchronized void onNewDevice() {
+        mNewDevices++;
+        mBackoff = mMinBackoff;
+        mNextScanAt = Math.min(mNextScanAt, System.currentTimeMillis() + mMinBackoff);
+        notifyAll();
+    }
+
+    /**
+     * No device is queued or connecting any more
+     */
+    public synchronized void onQueueDrained() {
+        notifyAll();
+    }
+
+    /**
+     * @return delay between scans currently chosen
+     */
+    public synchronized long getBackoff() {
+        return mBackoff;
+    }
+
+    /**
+     * @return time of the next scan in milliseconds since the epoch, if the queue is idle by then
+     */
+    public synchronized long getNextScanAt() {
+        return mNextScanAt;
+    }
+}
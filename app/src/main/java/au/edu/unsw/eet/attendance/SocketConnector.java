@@ -0,0 +1,110 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Opens a connection to a student device within a fixed time budget. Each attempt has its own
+ * connect timeout and failed attempts are retried after a jittered, exponentially growing delay,
+ * so a dead server is given up on in bounded time.
+ */
+public class SocketConnector {
+
+    public enum Outcome {
+        CONNECTED,
+
+        /**
+         * The last attempt timed out, or the budget ran out before any attempt
+         */
+        TIMED_OUT,
+
+        /**
+         * The last attempt was refused or could not be made
+         */
+        REFUSED
+    }
+
+    public static class Result {
+        final Outcome mOutcome;
+
+        /**
+         * The open connection, null unless CONNECTED
+         */
+        final Transport.Connection mConnection;
+        final int mAttempts;
+        final long mElapsedMillis;
+
+        Result(Outcome outcome, Transport.Connection connection, int attempts, long elapsedMillis) {
+            mOutcome = outcome;
+            mConnection = connection;
+            mAttempts = attempts;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return mOutcome + " after " + mAttempts + " attempts in " + mElapsedMillis + "ms";
+        }
+    }
+
+    private final Transport mTransport;
+    private final int mConnectTimeout;
+    private final long mInitialBackoff;
+    private final long mMaxBackoff;
+    private final long mBudget;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param connectTimeout timeout of a single attempt, in milliseconds
+     * @param initialBackoff upper bound of the delay after the first failure
+     * @param maxBackoff     upper bound of any delay
+     * @param budget         total time allowed for all attempts
+     */
+    public SocketConnector(int connectTimeout, long initialBackoff, long maxBackoff, long budget) {
+        this(new TcpTransport(), connectTimeout, initialBackoff, maxBackoff, budget);
+    }
+
+    public SocketConnector(Transport transport, int connectTimeout, long initialBackoff, long maxBackoff,
+                           long budget) {
+        mTransport = transport;
+        mConnectTimeout = connectTimeout;
+        mInitialBackoff = initialBackoff;
+        mMaxBackoff = maxBackoff;
+        mBudget = budget;
+    }
+
+    public Result connect(InetAddress address, int port) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long end = start + mBudget;
+        Outcome outcome = Outcome.TIMED_OUT;
+        int attempts = 0;
+
+        long remaining;
+        while ((remaining = end - System.currentTimeMillis()) > 0) {
+            attempts++;
+            try {
+                Transport.Connection connection = mTransport.connect(address, port,
+                        (int) Math.min(mConnectTimeout, remaining));
+                return new Result(Outcome.CONNECTED, connection, attempts, System.currentTimeMillis() - start);
+            } catch (SocketTimeoutException e) {
+                outcome = Outcome.TIMED_OUT;
+            } catch (ConnectException e) {
+                outcome = Outcome.REFUSED;
+            } catch (IOException e) {
+                outcome = Outcome.REFUSED;
+            }
+
+            // Full jitter, so that retries do not fall into step with the student's server
+            long ceiling = Math.min(mMaxBackoff, mInitialBackoff << Math.min(attempts - 1, 16));
+            long delay = (long) (mRandom.nextDouble() * ceiling);
+            remaining = end - System.currentTimeMillis();
+            if (delay >= remaining) break;
+            Thread.sleep(delay);
+        }
+
+        return new Result(outcome, null, attempts, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,482 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Student-side handshake server. A single thread accepts, reads and writes every connection
+ * through one Selector, so the number of threads does not depend on the number of instructors
+ * connecting. Connections come from a Transport, TCP unless another is given.
+ * <p> At most MAX_CONNECTIONS connections are open at once, further ones wait in the listen
+ * backlog until a slot frees. Each open connection holds a Session whose buffers are returned to a
+ * free list when it closes, so memory stays flat as well. A connection that has not delivered a
+ * whole message within the read timeout is closed. </p>
+ * <p> A text handshake ends the connection once the reply is sent. After a binary handshake the
+ * connection stays open as a session, in which the instructor may pipeline HandshakeCodec session
+ * frames: confirm handshakes, ask for the records it has not yet confirmed, push metadata and
+ * finally say goodbye. The session ends at TYPE_BYE, end of stream or the read timeout, counted
+ * from the last frame received. </p>
+ * <p> Listener callbacks run on the server thread and delay every other connection while they
+ * run, so they should be brief. </p>
+ */
+public class StudentServer extends Thread {
+    // Refactor-safe TAG for Logcat
+    static final String TAG = StudentServer.class.getSimpleName();
+
+    static final int MAX_CONNECTIONS = 8;
+    static final long READ_TIMEOUT_MS = 5000;
+
+    /**
+     * Most backlog records sent in answer to one TYPE_BACKLOG_REQUEST
+     */
+    static final int MAX_BACKLOG = 100;
+
+    /**
+     * Room for one message in either format plus the '\n' of a text line
+     */
+    static final int READ_BUFFER_SIZE = HandshakeCodec.MAX_MESSAGE_SIZE + 1;
+
+    /**
+     * Room for several backlog records per write, a frame is only added while a whole
+     * MAX_MESSAGE_SIZE remains
+     */
+    static final int WRITE_BUFFER_SIZE = 4 * HandshakeCodec.MAX_MESSAGE_SIZE;
+
+    public interface Listener {
+        /**
+         * Called on the server thread once the reply to a message has been written
+         *
+         * @param message only valid for the duration of the call
+         */
+        void onMessage(HandshakeCodec.Message message, long timestamp);
+
+        /**
+         * Called on the server thread when a connection closes before a handshake
+         */
+        void onFailed(String reason, long timestamp);
+
+        /**
+         * The instructor has stored the handshake with this nonce
+         */
+        void onConfirm(String instructorId, int nonce);
+
+        /**
+         * @return up to limit handshakes with the instructor that it has not confirmed, oldest first
+         */
+        List<AttendanceRecord> getBacklog(String instructorId, int limit);
+
+        /**
+         * @param metadata "key=value" text pushed by the instructor
+         */
+        void onMetadata(String instructorId, String metadata);
+    }
+
+    enum State {
+        /**
+         * Waiting for the instructor's handshake message
+         */
+        HANDSHAKE,
+
+        /**
+         * Handshake answered, waiting for session frames
+         */
+        SESSION,
+
+        /**
+         * Nothing more will be read, closes once everything queued has been written
+         */
+        CLOSING,
+        CLOSED
+    }
+
+    /**
+     * One accepted connection
+     */
+    static class Session {
+        final ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        /**
+         * Kept ready for putting, flipped only around each write to the channel
+         */
+        final ByteBuffer mWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        final HandshakeCodec.Message mMessage = new HandshakeCodec.Message();
+
+        /**
+         * Backlog records not yet put into mWriteBuffer, followed by TYPE_BACKLOG_END if
+         * mBacklogPending
+         */
+        final ArrayDeque<AttendanceRecord> mBacklog = new ArrayDeque<>();
+        boolean mBacklogPending;
+        int mBacklogCount;
+
+        Transport.Endpoint mEndpoint;
+
+        /**
+         * The same key when the endpoint reads and writes through one channel
+         */
+        SelectionKey mReadKey;
+        SelectionKey mWriteKey;
+        State mState;
+        String mInstructorId;
+        long mExchangeStart;
+        long mDeadline;
+
+        void open(Transport.Endpoint endpoint, SelectionKey readKey, SelectionKey writeKey, long now,
+                  long readTimeoutMillis) {
+            mEndpoint = endpoint;
+            mReadKey = readKey;
+            mWriteKey = writeKey;
+            mState = State.HANDSHAKE;
+            mInstructorId = null;
+            mExchangeStart = RegistrationMetrics.start();
+            mDeadline = now + readTimeoutMillis;
+            mReadBuffer.clear();
+            mWriteBuffer.clear();
+            mBacklog.clear();
+            mBacklogPending = false;
+        }
+
+        void setInterest(boolean read, boolean write) {
+            int readOps = read ? SelectionKey.OP_READ : 0;
+            int writeOps = write ? SelectionKey.OP_WRITE : 0;
+            if (mReadKey == mWriteKey) {
+                mReadKey.interestOps(readOps | writeOps);
+            } else {
+                mReadKey.interestOps(readOps);
+                mWriteKey.interestOps(writeOps);
+            }
+        }
+    }
+
+    private final Transport mTransport;
+    private final String mReplyId;
+    private final Listener mListener;
+    private final long mReadTimeoutMillis;
+
+    /**
+     * Shared by every session, the server thread is the only one to use it
+     */
+    private final HandshakeCodec mCodec = new HandshakeCodec();
+
+    private final ArrayList<Session> mSessions = new ArrayList<>(MAX_CONNECTIONS);
+    private final ArrayDeque<Session> mFreeSessions = new ArrayDeque<>(MAX_CONNECTIONS);
+
+    private Transport.Acceptor mAcceptor;
+    private Selector mSelector;
+    private SelectionKey mAcceptKey;
+    private volatile boolean mShutdown = false;
+
+    /**
+     * @param replyId ID sent back in reply to every message
+     */
+    public StudentServer(String replyId, Listener listener) {
+        this(new TcpTransport(), replyId, listener, READ_TIMEOUT_MS);
+    }
+
+    public StudentServer(Transport transport, String replyId, Listener listener, long readTimeoutMillis) {
+        super(TAG);
+        mTransport = transport;
+        mReplyId = replyId;
+        mListener = listener;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Listen on any free port of the transport, call before start()
+     *
+     * @return the port listened on
+     */
+    public int bind() throws IOException {
+        mSelector = Selector.open();
+        try {
+            mAcceptor = mTransport.listen(0);
+            mAcceptKey = mAcceptor.getChannel().register(mSelector, mAcceptor.getInterestOps());
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+        return mAcceptor.getPort();
+    }
+
+    /**
+     * Stop serving and close every connection, returns without waiting for the thread
+     */
+    public void shutdown() {
+        mShutdown = true;
+        if (mSelector != null) mSelector.wakeup();
+    }
+
+    /**
+     * @return number of connections currently open
+     */
+    synchronized int getOpenConnections() {
+        return mSessions.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!mShutdown && !isInterrupted()) {
+                long now = System.currentTimeMillis();
+                expireSessions(now);
+
+                long deadline = nextDeadline();
+                if (deadline == Long.MAX_VALUE) {
+                    mSelector.select();
+                } else if (deadline > now) {
+                    mSelector.select(deadline - now);
+                } else {
+                    mSelector.selectNow();
+                }
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key == mAcceptKey) {
+                        accept();
+                    } else {
+                        Session session = (Session) key.attachment();
+                        if (key.isReadable()) onReadable(session);
+                        if (key.isValid() && key.isWritable()) onWritable(session);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!mShutdown) e.printStackTrace();
+        } finally {
+            long now = System.currentTimeMillis();
+            while (!mSessions.isEmpty()) {
+                fail(mSessions.get(mSessions.size() - 1), "Server shut down", now);
+            }
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Accept as many pending connections as there are free slots
+     */
+    private void accept() throws IOException {
+        while (mSessions.size() < MAX_CONNECTIONS) {
+            Transport.Endpoint endpoint = mAcceptor.accept();
+            if (endpoint == null) return;
+
+            Session session = mFreeSessions.poll();
+            if (session == null) session = new Session();
+            SelectionKey readKey = endpoint.getReadChannel().register(mSelector, SelectionKey.OP_READ, session);
+            SelectionKey writeKey = endpoint.getWriteChannel() == endpoint.getReadChannel() ? readKey
+                    : endpoint.getWriteChannel().register(mSelector, 0, session);
+            session.open(endpoint, readKey, writeKey, System.currentTimeMillis(), mReadTimeoutMillis);
+            synchronized (this) {
+                mSessions.add(session);
+            }
+        }
+
+        // Leave the rest in the listen backlog until a session closes
+        mAcceptKey.interestOps(0);
+    }
+
+    private void onReadable(Session session) {
+        long now = System.currentTimeMillis();
+        try {
+            int read = session.mEndpoint.read(session.mReadBuffer);
+
+            // Handle every whole message received, the instructor may have pipelined several
+            session.mReadBuffer.flip();
+            while ((session.mState == State.HANDSHAKE || session.mState == State.SESSION)
+                    && mCodec.read(session.mReadBuffer, session.mMessage)) {
+                session.mDeadline = now + mReadTimeoutMillis;
+                if (session.mState == State.HANDSHAKE) {
+                    onHandshake(session, now);
+                } else {
+                    onFrame(session);
+                }
+            }
+            session.mReadBuffer.compact();
+
+            if (read == -1) {
+                if (session.mState == State.HANDSHAKE) {
+                    fail(session, "Connection closed before a message", now);
+                    return;
+                }
+                session.mState = State.CLOSING;
+            }
+            flush(session);
+        } catch (IOException e) {
+            fail(session, e.toString(), now);
+        }
+    }
+
+    private void onWritable(Session session) {
+        try {
+            flush(session);
+        } catch (IOException e) {
+            fail(session, e.toString(), System.currentTimeMillis());
+        }
+    }
+
+    private void onHandshake(Session session, long now) throws IOException {
+        HandshakeCodec.Message message = session.mMessage;
+
+        // Reply in the format the instructor used
+        mCodec.write(session.mWriteBuffer, message.mBinary, HandshakeCodec.TYPE_STUDENT,
+                mReplyId, message.mNonce);
+
+        // Only a binary handshake from an instructor can go on to a session
+        boolean persistent = message.mBinary && message.mType == HandshakeCodec.TYPE_INSTRUCTOR;
+        session.mState = persistent ? State.SESSION : State.CLOSING;
+        session.mInstructorId = message.mId;
+
+        RegistrationMetrics.getInstance().record(RegistrationMetrics.Phase.STUDENT_EXCHANGE,
+                session.mExchangeStart);
+        mListener.onMessage(message, now);
+    }
+
+    /**
+     * Act on one session frame. Frames always apply to the instructor of the handshake,
+     * whatever ID they carry.
+     */
+    private void onFrame(Session session) throws IOException {
+        HandshakeCodec.Message message = session.mMessage;
+        switch (message.mType) {
+            case HandshakeCodec.TYPE_CONFIRM:
+                mListener.onConfirm(session.mInstructorId, message.mNonce);
+                break;
+            case HandshakeCodec.TYPE_BACKLOG_REQUEST:
+                if (session.mBacklogPending) throw new ProtocolException("Backlog already requested");
+                int limit = Math.max(0, Math.min(message.mNonce, MAX_BACKLOG));
+                session.mBacklog.addAll(mListener.getBacklog(session.mInstructorId, limit));
+                session.mBacklogCount = session.mBacklog.size();
+                session.mBacklogPending = true;
+                break;
+            case HandshakeCodec.TYPE_METADATA:
+                mListener.onMetadata(session.mInstructorId, message.mId);
+                break;
+            case HandshakeCodec.TYPE_BYE:
+                session.mState = State.CLOSING;
+                break;
+            default:
+                throw new ProtocolException("Unexpected frame type " + message.mType);
+        }
+    }
+
+    /**
+     * Write as much of what is queued as the socket takes, then watch for whatever the session
+     * is still waiting on. A CLOSING session with nothing left to write is closed.
+     */
+    private void flush(Session session) throws IOException {
+        ByteBuffer out = session.mWriteBuffer;
+        while (true) {
+            fillBacklog(session);
+            if (out.position() == 0) break;
+
+            out.flip();
+            int written = session.mEndpoint.write(out);
+            out.compact();
+            if (written == 0) break;
+        }
+
+        boolean pending = out.position() > 0 || session.mBacklogPending;
+        if (session.mState == State.CLOSING && !pending) {
+            close(session);
+            return;
+        }
+        session.setInterest(session.mState != State.CLOSING, pending);
+    }
+
+    /**
+     * Move backlog records into the write buffer while a whole message still fits
+     */
+    private void fillBacklog(Session session) throws IOException {
+        ByteBuffer out = session.mWriteBuffer;
+        while (session.mBacklogPending && out.remaining() >= HandshakeCodec.MAX_MESSAGE_SIZE) {
+            AttendanceRecord record = session.mBacklog.poll();
+            if (record != null) {
+                mCodec.writeFrame(out, HandshakeCodec.TYPE_BACKLOG_RECORD, record.mInstructorId,
+                        record.mRand, record.mTimestamp);
+            } else {
+                mCodec.writeFrame(out, HandshakeCodec.TYPE_BACKLOG_END, mReplyId, session.mBacklogCount, 0);
+                session.mBacklogPending = false;
+            }
+        }
+    }
+
+    /**
+     * Close sessions that have been silent for the read timeout. A CLOSING session has nothing
+     * left to wait for from the peer, so only a full socket buffer can hold it up and the same
+     * deadline applies.
+     */
+    private void expireSessions(long now) {
+        for (int i = mSessions.size() - 1; i >= 0; i--) {
+            Session session = mSessions.get(i);
+            if (session.mDeadline <= now) fail(session, "Timed out", now);
+        }
+    }
+
+    /**
+     * @return earliest session deadline, Long.MAX_VALUE if there are no sessions
+     */
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (int i = 0; i < mSessions.size(); i++) {
+            deadline = Math.min(deadline, mSessions.get(i).mDeadline);
+        }
+        return deadline;
+    }
+
+    /**
+     * Close the session, reporting a failure only if the handshake had not happened yet
+     */
+    private void fail(Session session, String reason, long now) {
+        boolean handshaking = session.mState == State.HANDSHAKE;
+        close(session);
+        if (handshaking) mListener.onFailed(reason, now);
+    }
+
+    /**
+     * Close the session's channel and return it to the free list, reopening the accept slot
+     */
+    private void close(Session session) {
+        session.mState = State.CLOSED;
+        session.mReadKey.cancel();
+        session.mWriteKey.cancel();
+        try {
+            session.mEndpoint.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        session.mEndpoint = null;
+        session.mReadKey = null;
+        session.mWriteKey = null;
+        session.mBacklog.clear();
+
+        synchronized (this) {
+            mSessions.remove(session);
+        }
+        mFreeSessions.push(session);
+        if (mAcceptKey.isValid()) mAcceptKey.interestOps(mAcceptor.getInterestOps());
+    }
+
+    private void closeQuietly() {
+        try {
+            if (mAcceptor != null) mAcceptor.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            if (mSelector != null) mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
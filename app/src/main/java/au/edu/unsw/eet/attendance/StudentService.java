@@ -1,25 +1,23 @@
 package au.edu.unsw.eet.attendance;
 
 import android.content.Intent;
+import android.database.Cursor;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.wifi.p2p.WifiP2pGroup;
 import android.net.wifi.p2p.WifiP2pInfo;
 import android.net.wifi.p2p.WifiP2pManager;
 import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Vibrator;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class StudentService extends P2pService {
@@ -52,125 +50,96 @@ public class StudentService extends P2pService {
     int mPortNumber;
 
     /**
-     * Student side server socket
+     * Student side server, serving every instructor connection on one thread
      */
-    ServerSocket mServerSocket;
+    StudentServer mServer;
 
     /**
-     * Thread to listen to server socket
+     * Precompiled insert into and update of student_attendance, reused for the life of the service
      */
-    Thread mSocketListener = new Thread() {
-        @Override
-        public void run() {
-            Log.i(TAG, "SocketListener run()");
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mSyncedStatement;
 
-            // Ensure we have a server socket from which to spawn client sockets
-            if (mServerSocket != null) {
-                // Store spawned threads so they may be killed when this thread is interrupted
-                ArrayList<Thread> threadPool = new ArrayList<Thread>();
+    /**
+     * Writes handshakes and confirmations in the order mServer receives them, so that the
+     * server's thread never waits on the database or the vibrator
+     */
+    private HandlerThread mWriterThread;
+    private Handler mWriter;
 
-                try {
-                    while (!this.isInterrupted()) {
-                        Socket clientSocket = mServerSocket.accept();
+    /**
+     * Handshakes not yet confirmed, read by mServer and changed only on mWriterThread
+     */
+    private final BacklogSnapshot mBacklog = new BacklogSnapshot();
 
-                        // Get here if a connection is established
+    /**
+     * Receives handshakes from mServer, on the server's thread. Hands everything that touches the
+     * database to mWriter, as the server reuses message for the next frame.
+     */
+    private final StudentServer.Listener mServerListener = new StudentServer.Listener() {
+        @Override
+        public void onMessage(HandshakeCodec.Message message, long timestamp) {
+            Log.i(TAG, "Received " + message.mId + ":" + message.mNonce);
 
-                        // Spawn new thread to handle client socket
-                        ClientSocketThread thread = new ClientSocketThread(clientSocket);
-                        threadPool.add(thread); // add to thread pool
+            if (message.mType != HandshakeCodec.TYPE_INSTRUCTOR) {
+                onFailed("Not an instructor message", timestamp);
+                return;
+            }
 
-                        thread.start();
-                    }
-                } catch (IOException e) {
-                    Log.e(TAG, "SocketListener died unexpectedly.");
-                } finally {
-                    // Interrupt all threads
-                    for (Thread t : threadPool) {
-                        if (t.isAlive()) t.interrupt();
+            final String instructorId = message.mId;
+            final int nonce = message.mNonce;
+            final long time = timestamp;
+            mWriter.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Add the current student to the database
+                    try {
+                        long insertStart = RegistrationMetrics.start();
+                        recordAttendance(instructorId, nonce, time);
+                        RegistrationMetrics.getInstance().record(RegistrationMetrics.Phase.STUDENT_INSERT, insertStart);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
                     }
+
+                    // vibration for 800 milliseconds
+                    ((Vibrator) getSystemService(VIBRATOR_SERVICE)).vibrate(800);
                 }
-            }
+            });
         }
-    };
-
-    class ClientSocketThread extends Thread {
-        Socket mSocket;
 
-        ClientSocketThread(Socket clientSocket) {
-            mSocket = clientSocket;
+        @Override
+        public void onFailed(String reason, long timestamp) {
+            Log.w(TAG, "Handshake failed: " + reason);
+            postEvent(new AttendanceEvent(AttendanceEvent.Phase.FAILED,
+                    null, mHumanReadableId, 0, timestamp));
         }
 
         @Override
-        public void run() {
-            Log.v(TAG, "ClientSocketThread run()");
-
-            // Ensure we have a socket to read from
-            if (mSocket != null) {
-                try {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
-                    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream())), true);
-
-                    String inputMessage = in.readLine();
-                    Log.i(TAG, "InputStream: " + inputMessage);
-
-                    String outputMessage = STUDENT_MESSAGE_PREFIX + mHumanReadableId;
-                    Log.i(TAG, "OutputStream: " + outputMessage);
-                    out.println(outputMessage);
-
-                    // Add the current student to the database
-                    if (inputMessage.contains(INSTRUCTOR_MESSAGE_PREFIX)) {
-                        SQLiteDatabase database = null;
-                        try {
-                            database = openOrCreateDatabase(DATABASE_NAME, MODE_PRIVATE, null);
-                            String sql = null;
-
-                            String[] inputStrings = inputMessage.split(":");
-                            String instructorId = inputStrings[1];
-                            String studentId = mHumanReadableId;
-                            int rand = Integer.parseInt(inputStrings[2]);
-
-                            // Store the random number received and the current timestamp
-                            sql = "CREATE TABLE IF NOT EXISTS student_attendance(" +
-                                    "student_id VARCHAR, " +
-                                    "instructor_id VARCHAR, " +
-                                    "rand INT, " +
-                                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP);";
-                            database.execSQL(sql);
-
-                            sql = String.format(
-                                    "INSERT INTO student_attendance (student_id, instructor_id, rand) VALUES('%s', '%s', %d);",
-                                    studentId,
-                                    instructorId,
-                                    rand);
-                            database.execSQL(sql);
-                            Log.i(TAG, sql);
-
-                        } catch (SQLException e) {
-                            e.printStackTrace();
-                        } finally {
-                            if (database != null)
-                                database.close();
-                        }
-
-                        // vibration for 800 milliseconds
-                        ((Vibrator) getSystemService(VIBRATOR_SERVICE)).vibrate(800);
+        public void onConfirm(final String instructorId, final int nonce) {
+            mWriter.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        markSynced(instructorId, nonce);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
                     }
+                }
+            });
+        }
 
-                    sendMessage(inputMessage); // send message to trigger list update
+        @Override
+        public List<AttendanceRecord> getBacklog(String instructorId, int limit) {
+            List<AttendanceRecord> backlog = mBacklog.get(instructorId, limit);
+            Log.i(TAG, "Sending " + backlog.size() + " unconfirmed records to " + instructorId);
+            return backlog;
+        }
 
-                    mSocket.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Client socket thread died unexpectedly.");
-                    e.printStackTrace();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else {
-                Log.e(TAG, "mSocket null");
-                mService.stopSelf();
-            }
+        @Override
+        public void onMetadata(String instructorId, String metadata) {
+            Log.i(TAG, "Session metadata from " + instructorId + ": " + metadata);
         }
-    }
+    };
 
     /**********************************************************************************************
      * Service Lifecycle Methods
@@ -184,6 +153,10 @@ public class StudentService extends P2pService {
     public void onCreate() {
         super.onCreate();
 
+        mWriterThread = new HandlerThread(TAG + "Writer");
+        mWriterThread.start();
+        mWriter = new Handler(mWriterThread.getLooper());
+
         studentServerStartup();
     }
 
@@ -200,6 +173,12 @@ public class StudentService extends P2pService {
     @Override
     public void onDestroy() {
         studentServerShutdown();
+        writerShutdown();
+
+        synchronized (mDatabase) {
+            if (mInsertStatement != null) mInsertStatement.close();
+            if (mSyncedStatement != null) mSyncedStatement.close();
+        }
 
         super.onDestroy();
     }
@@ -287,25 +266,24 @@ public class StudentService extends P2pService {
         // Ensure that the required GroupInfo and ConnectionInfo have been obtained
         if (this.mNetworkName != null && this.mPassphrase != null && this.mHostAddress != null) {
             try {
-                if (mServerSocket != null) {
-                    throw new IOException("Server Socket already exists!");
+                if (mServer != null) {
+                    throw new IOException("Server already exists!");
                 }
 
-                // Create server socket
-                mServerSocket = new ServerSocket(0);
+                // Create server and obtain port number to advertise over p2p service discovery
+                mServer = new StudentServer(mHumanReadableId, mServerListener);
+                mPortNumber = mServer.bind();
 
-                // Obtain port number to advertise over p2p service discovery
-                mPortNumber = mServerSocket.getLocalPort();
+                // Queued ahead of anything the server hands to mWriter
+                mWriter.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBacklog.load(loadUnconfirmed());
+                    }
+                });
 
                 Log.i(TAG, String.format("Server started on %s:%d in network %s:%s", mHostAddress, mPortNumber, mNetworkName, mPassphrase));
-
-                // Listen to the client socket
-                if (!mSocketListener.isAlive()) {
-                    Log.i(TAG, "Starting server socket.");
-                    mSocketListener.start();
-                } else {
-                    throw new IOException("Socket Listener is already alive!");
-                }
+                mServer.start();
                 // Register Local Service
                 startRegistration(mNetworkName, mPassphrase, mHostAddress, mPortNumber);
             } catch (IOException e) {
@@ -332,6 +310,7 @@ public class StudentService extends P2pService {
         record.put("host", ipAddress);
         record.put("ssid", ssid);
         record.put("passphrase", passphrase);
+        record.put(RECORD_PROTOCOL, String.valueOf(HandshakeCodec.SESSION_PROTOCOL));
 
         // Service information.  Pass it an instance name, service type
         // _protocol._transportlayer , and the map containing
@@ -355,6 +334,86 @@ public class StudentService extends P2pService {
         });
     }
 
+    /**
+     * Store the random number received and the time of the handshake, then publish the record.
+     * Both happen under the database lock so that events are posted in ROWID order.
+     */
+    private void recordAttendance(String instructorId, int rand, long timestamp) {
+        synchronized (mDatabase) {
+            if (mInsertStatement == null) {
+                mInsertStatement = mDatabase.getWritableDatabase()
+                        .compileStatement(AttendanceDatabase.INSERT_STUDENT_ATTENDANCE);
+            }
+
+            mInsertStatement.bindString(1, mHumanReadableId);
+            mInsertStatement.bindString(2, instructorId);
+            mInsertStatement.bindLong(3, rand);
+            mInsertStatement.bindLong(4, timestamp / 1000);
+            long rowId = mInsertStatement.executeInsert();
+            mBacklog.add(new AttendanceRecord(instructorId, null, mHumanReadableId, rand, timestamp / 1000 * 1000));
+
+            postEvent(new AttendanceEvent(AttendanceEvent.Phase.RECORDED, instructorId, mHumanReadableId,
+                    rand, timestamp, AttendanceDatabase.STUDENT_TABLE, rowId));
+        }
+    }
+
+    /**
+     * Mark a handshake as held by the instructor, so that it is left out of later backlogs
+     */
+    private void markSynced(String instructorId, int rand) {
+        synchronized (mDatabase) {
+            if (mSyncedStatement == null) {
+                mSyncedStatement = mDatabase.getWritableDatabase()
+                        .compileStatement(AttendanceDatabase.UPDATE_STUDENT_SYNCED);
+            }
+
+            mSyncedStatement.bindString(1, instructorId);
+            mSyncedStatement.bindString(2, mHumanReadableId);
+            mSyncedStatement.bindLong(3, rand);
+            mSyncedStatement.executeUpdateDelete();
+        }
+        mBacklog.confirm(instructorId, rand);
+    }
+
+    /**
+     * @return handshakes their instructors have not confirmed, oldest first
+     */
+    private List<AttendanceRecord> loadUnconfirmed() {
+        List<AttendanceRecord> backlog = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = mDatabase.getReadableDatabase().rawQuery(AttendanceDatabase.SELECT_STUDENT_UNCONFIRMED,
+                    new String[]{mHumanReadableId});
+            while (c.moveToNext()) {
+                backlog.add(new AttendanceRecord(c.getString(0), null, mHumanReadableId,
+                        c.getInt(1), c.getLong(2) * 1000));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (c != null) c.close();
+        }
+        return backlog;
+    }
+
+    /**
+     * Let mWriter finish what the server has handed it, then stop it
+     */
+    private void writerShutdown() {
+        mWriter.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myLooper().quit();
+            }
+        });
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            /* Main thread should not be interrupted */
+            e.printStackTrace();
+        }
+    }
+
     private void studentServerShutdown() {
         // Remove p2p group
         mWifiP2pManager.removeGroup(mWifiP2pChannel, new WifiP2pManager.ActionListener() {
@@ -386,20 +445,11 @@ public class StudentService extends P2pService {
             });
         }
 
-        // Close server socket
-        try {
-            if (mServerSocket != null) {
-                mServerSocket.close();
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Server socket could not be closed");
-        }
-
-        // Close mSocketListener
-        if (mSocketListener != null && mSocketListener.isAlive()) {
-            mSocketListener.interrupt();
+        // Close the server and every connection it holds
+        if (mServer != null && mServer.isAlive()) {
+            mServer.shutdown();
             try {
-                mSocketListener.join();
+                mServer.join();
             } catch (InterruptedException e) {
                 /* Main thread should not be interrupted */
                 e.printStackTrace();
@@ -0,0 +1,161 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport over TCP sockets, as used between devices in a Wi-Fi Direct group
+ */
+public class TcpTransport implements Transport {
+
+    /**
+     * Address servers listen on, null for all interfaces
+     */
+    private final InetAddress mBindAddress;
+
+    public TcpTransport() {
+        this(null);
+    }
+
+    public TcpTransport(InetAddress bindAddress) {
+        mBindAddress = bindAddress;
+    }
+
+    @Override
+    public Acceptor listen(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(mBindAddress, port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SocketAcceptor(channel);
+    }
+
+    @Override
+    public Connection connect(InetAddress address, int port, int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new SocketConnection(socket);
+    }
+
+    static class SocketAcceptor implements Acceptor {
+        private final ServerSocketChannel mChannel;
+
+        SocketAcceptor(ServerSocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public int getPort() {
+            return mChannel.socket().getLocalPort();
+        }
+
+        @Override
+        public SelectableChannel getChannel() {
+            return mChannel;
+        }
+
+        @Override
+        public int getInterestOps() {
+            return SelectionKey.OP_ACCEPT;
+        }
+
+        @Override
+        public Endpoint accept() throws IOException {
+            SocketChannel channel = mChannel.accept();
+            if (channel == null) return null;
+
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return new SocketEndpoint(channel);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+
+    static class SocketEndpoint implements Endpoint {
+        private final SocketChannel mChannel;
+
+        SocketEndpoint(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public SelectableChannel getReadChannel() {
+            return mChannel;
+        }
+
+        @Override
+        public SelectableChannel getWriteChannel() {
+            return mChannel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return mChannel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return mChannel.write(src);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+
+    static class SocketConnection implements Connection {
+        final Socket mSocket;
+
+        SocketConnection(Socket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            mSocket.setSoTimeout(millis);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
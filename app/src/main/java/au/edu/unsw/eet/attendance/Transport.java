@@ -0,0 +1,82 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Carries handshake connections from instructor to student. The app uses TcpTransport, while
+ * LoopbackTransport connects both sides within one process so that handshakes can run without
+ * Wi-Fi, in unit tests and simulations.
+ * <p> The instructor's end of a connection is blocking, see InstructorHandshake. The student's
+ * end is non-blocking and is served from StudentServer's selector. </p>
+ */
+public interface Transport {
+
+    /**
+     * Instructor's end of a connection
+     */
+    interface Connection extends Closeable {
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+
+        /**
+         * @param millis longest a read may block before throwing SocketTimeoutException, 0 for
+         *               no limit
+         */
+        void setReadTimeout(int millis) throws IOException;
+    }
+
+    /**
+     * Student's listening end
+     */
+    interface Acceptor extends Closeable {
+        int getPort();
+
+        /**
+         * @return channel to register with a selector for getInterestOps(), ready whenever
+         * accept() may return a connection
+         */
+        SelectableChannel getChannel();
+
+        int getInterestOps();
+
+        /**
+         * @return the next pending connection, non-blocking, or null if there is none
+         */
+        Endpoint accept() throws IOException;
+    }
+
+    /**
+     * Student's end of a connection. Both channels are non-blocking and may be the same channel.
+     */
+    interface Endpoint extends Closeable {
+        SelectableChannel getReadChannel();
+
+        SelectableChannel getWriteChannel();
+
+        int read(ByteBuffer dst) throws IOException;
+
+        int write(ByteBuffer src) throws IOException;
+    }
+
+    /**
+     * Start listening for instructors
+     *
+     * @param port port to listen on, 0 for any free port
+     */
+    Acceptor listen(int port) throws IOException;
+
+    /**
+     * Make a single attempt to connect to a student, see SocketConnector for retries
+     *
+     * @throws java.net.SocketTimeoutException if the attempt timed out
+     * @throws java.net.ConnectException       if nothing is listening
+     */
+    Connection connect(InetAddress address, int port, int timeoutMillis) throws IOException;
+}
@@ -0,0 +1,112 @@
+package au.edu.unsw.eet.attendance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writer thread that accepts items from any number of producers and hands them to a Sink in
+ * batches. A batch is written as soon as it holds maxBatchSize items or its oldest item has waited
+ * maxDelayMillis, whichever comes first, so producers never wait on the Sink themselves.
+ *
+ * @param <T> the type of item being written
+ */
+public class WriteBehindQueue<T> extends Thread {
+
+    /**
+     * Destination for batches of items, only ever called from the writer thread
+     */
+    public interface Sink<T> {
+        void write(List<T> batch);
+    }
+
+    /**
+     * Queued after the last item by close() so that the writer wakes up, drains and exits
+     */
+    private static final Object CLOSE = new Object();
+
+    private final LinkedBlockingQueue<Object> mQueue = new LinkedBlockingQueue<Object>();
+    private final Sink<T> mSink;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMillis;
+
+    private volatile boolean mClosed = false;
+
+    public WriteBehindQueue(Sink<T> sink, int maxBatchSize, long maxDelayMillis) {
+        super(WriteBehindQueue.class.getSimpleName());
+        mSink = sink;
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Queue an item to be written. Never blocks.
+     *
+     * @return false if the queue has been closed and the item was dropped
+     */
+    public boolean enqueue(T item) {
+        synchronized (mQueue) {
+            if (mClosed) return false;
+            mQueue.add(item);
+            return true;
+        }
+    }
+
+    /**
+     * Stop accepting items, write everything already queued and wait for the writer to finish
+     */
+    public void close() throws InterruptedException {
+        synchronized (mQueue) {
+            if (mClosed) return;
+            mClosed = true;
+            mQueue.add(CLOSE);
+        }
+
+        if (getState() == State.NEW) {
+            // Never started, so write the backlog on the caller's thread
+            run();
+        } else {
+            join();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void run() {
+        ArrayList<T> batch = new ArrayList<T>(mMaxBatchSize);
+        boolean closing = false;
+
+        while (!closing) {
+            try {
+                Object item = mQueue.take();
+
+                // Keep collecting until the batch is full or the first item has waited long enough
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mMaxDelayMillis);
+                while (item != null) {
+                    if (item == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+
+                    batch.add((T) item);
+                    if (batch.size() >= mMaxBatchSize) break;
+
+                    item = mQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                // Only close() may stop the writer, otherwise queued items would be lost
+                e.printStackTrace();
+            }
+
+            if (batch.size() > 0) {
+                try {
+                    mSink.write(batch);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                batch.clear();
+            }
+        }
+    }
+}
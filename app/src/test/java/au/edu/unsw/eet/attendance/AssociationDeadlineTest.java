@@ -0,0 +1,89 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AssociationDeadlineTest {
+
+    RegistrationTracker mTracker;
+    AssociationDeadline mDeadline;
+    final LinkedBlockingQueue<String> mExpired = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mTracker = new RegistrationTracker();
+        mDeadline = new AssociationDeadline(new AssociationDeadline.Listener() {
+            @Override
+            public void onExpired(String deviceAddress) {
+                // As InstructorService does: fail the attempt and go on to the next device
+                mTracker.finish(deviceAddress, false);
+                String next = mTracker.beginNext();
+                if (next != null) mDeadline.arm(next, 100);
+                mExpired.add(deviceAddress);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mDeadline.shutdown();
+    }
+
+    void queue(String... devices) {
+        for (String device : devices) mTracker.markVisible(device, -50);
+        mTracker.queueVisible(0);
+    }
+
+    @Test
+    public void neverConnected_failsTheAttemptAndMovesOn() throws Exception {
+        queue("a", "b");
+        mDeadline.arm(mTracker.beginNext(), 100);
+
+        // No connected broadcast ever arrives for either device
+        assertEquals("a", mExpired.poll(2, TimeUnit.SECONDS));
+        assertEquals(RegistrationTracker.State.FAILED, mTracker.getState("a"));
+        assertEquals(1, mTracker.getFailures("a"));
+
+        assertEquals("b", mExpired.poll(2, TimeUnit.SECONDS));
+        assertTrue(mTracker.isIdle());
+    }
+
+    @Test
+    public void disarm_claimsTheAttemptBeforeTheDeadline() throws Exception {
+        queue("a");
+        mDeadline.arm(mTracker.beginNext(), 200);
+
+        long remaining = mDeadline.disarm("a");
+        assertTrue(remaining > 0 && remaining <= 200);
+        assertNull(mExpired.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals(RegistrationTracker.State.CONNECTING, mTracker.getState("a"));
+
+        // Claimed once only
+        assertEquals(-1, mDeadline.disarm("a"));
+    }
+
+    @Test
+    public void disarm_afterExpiry_leavesTheAttemptToTheDeadline() throws Exception {
+        queue("a");
+        mDeadline.arm(mTracker.beginNext(), 50);
+
+        assertEquals("a", mExpired.poll(2, TimeUnit.SECONDS));
+        assertEquals(-1, mDeadline.disarm("a"));
+    }
+
+    @Test
+    public void arm_replacesTheEarlierDeadline() throws Exception {
+        mDeadline.arm("a", 50);
+        mDeadline.arm("b", 100);
+
+        assertEquals(-1, mDeadline.disarm("a"));
+        assertEquals("b", mExpired.poll(2, TimeUnit.SECONDS));
+        assertNull(mExpired.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,99 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AttendanceEventBusTest {
+
+    /**
+     * Holds scheduled tasks until the test runs them, standing in for the main thread
+     */
+    static class ManualScheduler implements AttendanceEventBus.Scheduler {
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<Runnable>(mTasks);
+            mTasks.clear();
+            for (Runnable task : tasks) task.run();
+        }
+    }
+
+    /**
+     * Copies every delivery it is given
+     */
+    static class RecordingSubscriber implements AttendanceEventBus.Subscriber {
+        final List<List<AttendanceEvent>> mDeliveries = new ArrayList<List<AttendanceEvent>>();
+
+        @Override
+        public void onAttendanceEvents(List<AttendanceEvent> events) {
+            mDeliveries.add(new ArrayList<AttendanceEvent>(events));
+        }
+    }
+
+    ManualScheduler mScheduler;
+    AttendanceEventBus mBus;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mBus = new AttendanceEventBus(mScheduler, AttendanceEventBus.FRAME_INTERVAL_MS);
+    }
+
+    static AttendanceEvent recorded(int nonce) {
+        return new AttendanceEvent(AttendanceEvent.Phase.RECORDED, "instructor", "student", nonce,
+                System.currentTimeMillis(), AttendanceDatabase.STUDENT_TABLE, nonce);
+    }
+
+    @Test
+    public void eventsWithinFrame_areDeliveredTogetherInOrder() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mBus.subscribe(subscriber);
+
+        for (int i = 0; i < 5; i++) mBus.post(recorded(i));
+        assertEquals(1, mScheduler.mTasks.size());
+        assertTrue(subscriber.mDeliveries.isEmpty());
+
+        mScheduler.runAll();
+        assertEquals(1, subscriber.mDeliveries.size());
+        List<AttendanceEvent> events = subscriber.mDeliveries.get(0);
+        assertEquals(5, events.size());
+        for (int i = 0; i < 5; i++) assertEquals(i, events.get(i).mNonce);
+    }
+
+    @Test
+    public void postAfterDelivery_schedulesAnotherFrame() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mBus.subscribe(subscriber);
+
+        mBus.post(recorded(0));
+        mScheduler.runAll();
+        mBus.post(recorded(1));
+        assertEquals(1, mScheduler.mTasks.size());
+        mScheduler.runAll();
+
+        assertEquals(2, subscriber.mDeliveries.size());
+        assertEquals(1, subscriber.mDeliveries.get(1).get(0).mNonce);
+    }
+
+    @Test
+    public void unsubscribed_receivesNothing() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mBus.subscribe(subscriber);
+        mBus.unsubscribe(subscriber);
+
+        mBus.post(recorded(0));
+        mScheduler.runAll();
+
+        assertTrue(subscriber.mDeliveries.isEmpty());
+    }
+}
@@ -0,0 +1,65 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BacklogSnapshotTest {
+    BacklogSnapshot mSnapshot = new BacklogSnapshot();
+
+    static AttendanceRecord record(String instructorId, int rand) {
+        return new AttendanceRecord(instructorId, null, "z1234567", rand, rand * 1000L);
+    }
+
+    static List<Integer> rands(List<AttendanceRecord> records) {
+        List<Integer> rands = new ArrayList<>();
+        for (AttendanceRecord record : records) rands.add(record.mRand);
+        return rands;
+    }
+
+    @Test
+    public void get_returnsOneInstructorsRecordsOldestFirst() {
+        mSnapshot.load(Arrays.asList(record("i1", 3), record("i2", 9), record("i1", 1)));
+        mSnapshot.add(record("i1", 2));
+
+        assertEquals(Arrays.asList(3, 1, 2), rands(mSnapshot.get("i1", 100)));
+        assertEquals(Arrays.asList(3, 1), rands(mSnapshot.get("i1", 2)));
+        assertEquals(Arrays.asList(9), rands(mSnapshot.get("i2", 100)));
+        assertTrue(mSnapshot.get("i3", 100).isEmpty());
+    }
+
+    @Test
+    public void confirm_dropsOnlyThatInstructorsRecord() {
+        for (int rand = 1; rand <= 4; rand++) mSnapshot.add(record("i1", rand));
+        mSnapshot.add(record("i2", 2));
+
+        mSnapshot.confirm("i1", 2);
+        mSnapshot.confirm("i1", 7);
+        mSnapshot.confirm("i3", 1);
+
+        assertEquals(Arrays.asList(1, 3, 4), rands(mSnapshot.get("i1", 100)));
+        assertEquals(Arrays.asList(2), rands(mSnapshot.get("i2", 100)));
+    }
+
+    @Test
+    public void load_replacesTheSnapshot() {
+        mSnapshot.add(record("i1", 1));
+        mSnapshot.load(Arrays.asList(record("i2", 2)));
+
+        assertTrue(mSnapshot.get("i1", 100).isEmpty());
+        assertEquals(Arrays.asList(2), rands(mSnapshot.get("i2", 100)));
+    }
+
+    @Test
+    public void get_returnsACopy() {
+        mSnapshot.add(record("i1", 1));
+        List<AttendanceRecord> backlog = mSnapshot.get("i1", 100);
+        mSnapshot.confirm("i1", 1);
+
+        assertEquals(1, backlog.size());
+    }
+}
@@ -0,0 +1,74 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConnectionReadinessTest {
+
+    ConnectionReadiness mReadiness;
+
+    @Before
+    public void setUp() {
+        mReadiness = new ConnectionReadiness(null);
+    }
+
+    /**
+     * Report a connection from another thread after a short delay
+     */
+    void connectLater(final String ssid) {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mReadiness.onConnected(ssid, null);
+            }
+        }.start();
+    }
+
+    @Test
+    public void expectedNetwork_releasesWaiterAtOnce() throws Exception {
+        mReadiness.expect("DIRECT-ab");
+        connectLater("\"DIRECT-ab\"");
+
+        long start = System.currentTimeMillis();
+        assertTrue(mReadiness.await(5000));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void otherNetwork_waitsUntilDeadline() throws Exception {
+        mReadiness.expect("DIRECT-ab");
+        connectLater("\"eduroam\"");
+
+        long start = System.currentTimeMillis();
+        assertFalse(mReadiness.await(200));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void expect_forgetsEarlierConnection() throws Exception {
+        mReadiness.expect("DIRECT-ab");
+        mReadiness.onConnected("\"DIRECT-ab\"", null);
+        assertTrue(mReadiness.await(0));
+
+        mReadiness.expect("DIRECT-cd");
+        assertFalse(mReadiness.await(50));
+        assertEquals("\"DIRECT-cd\"", mReadiness.getExpectedSsid());
+    }
+
+    @Test
+    public void cancel_ignoresLaterConnections() throws Exception {
+        mReadiness.expect("DIRECT-ab");
+        mReadiness.cancel();
+        mReadiness.onConnected("\"DIRECT-ab\"", null);
+
+        assertFalse(mReadiness.await(50));
+        assertNull(mReadiness.getExpectedSsid());
+    }
+}
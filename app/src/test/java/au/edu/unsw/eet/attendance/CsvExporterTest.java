@@ -0,0 +1,151 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class CsvExporterTest {
+
+    /**
+     * Rows held in an array
+     */
+    static class ArrayRows implements CsvExporter.Rows {
+        final String[][] mRows;
+        int mPosition = -1;
+
+        ArrayRows(String[][] rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return mRows.length > 0 ? mRows[0].length : 0;
+        }
+
+        @Override
+        public boolean next() {
+            return ++mPosition < mRows.length;
+        }
+
+        @Override
+        public String get(int column) {
+            return mRows[mPosition][column];
+        }
+    }
+
+    /**
+     * Rows generated on the fly, never held in memory
+     */
+    static class GeneratedRows implements CsvExporter.Rows {
+        final int mCount;
+        int mPosition = -1;
+
+        GeneratedRows(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 3;
+        }
+
+        @Override
+        public boolean next() {
+            return ++mPosition < mCount;
+        }
+
+        @Override
+        public String get(int column) {
+            return column == 0 ? "ABCD1234" : column == 1 ? "z" + mPosition : "2016-08-10 12:00:00";
+        }
+    }
+
+    @Test
+    public void export_writesRowsInOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = new CsvExporter().export(new ArrayRows(new String[][]{
+                {"ABCD1234", "z1234567", "2016-08-10 12:00:00"},
+                {"ABCD1234", "z7654321", "2016-08-10 12:01:00"},
+        }), Channels.newChannel(out), false, null);
+
+        assertEquals(2, written);
+        assertEquals("ABCD1234,z1234567,2016-08-10 12:00:00\n" +
+                "ABCD1234,z7654321,2016-08-10 12:01:00\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void export_quotesFieldsThatNeedIt() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvExporter().export(new ArrayRows(new String[][]{
+                {"A,B", "say \"hi\"", null},
+        }), Channels.newChannel(out), false, null);
+
+        assertEquals("\"A,B\",\"say \"\"hi\"\"\",\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void export_gzip_roundTrips() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvExporter().export(new GeneratedRows(5000), Channels.newChannel(out), true, null);
+
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) plain.write(buffer, 0, n);
+
+        String[] lines = plain.toString("UTF-8").split("\n");
+        assertEquals(5000, lines.length);
+        assertEquals("ABCD1234,z4999,2016-08-10 12:00:00", lines[4999]);
+    }
+
+    @Test
+    public void export_reportsProgress() throws Exception {
+        final int[] last = {0, 0};
+        final int[] calls = {0};
+        new CsvExporter().export(new GeneratedRows(2500), Channels.newChannel(new ByteArrayOutputStream()), false,
+                new CsvExporter.ProgressListener() {
+                    @Override
+                    public void onProgress(int rowsWritten, int totalRows) {
+                        assertTrue(rowsWritten >= last[0]);
+                        last[0] = rowsWritten;
+                        last[1] = totalRows;
+                        calls[0]++;
+                    }
+                });
+
+        assertEquals(2500, last[0]);
+        assertEquals(2500, last[1]);
+        assertEquals(3, calls[0]);
+    }
+
+    @Test
+    public void cancel_stopsExport() throws Exception {
+        final CsvExporter exporter = new CsvExporter();
+        int written = exporter.export(new GeneratedRows(100000), Channels.newChannel(new ByteArrayOutputStream()), false,
+                new CsvExporter.ProgressListener() {
+                    @Override
+                    public void onProgress(int rowsWritten, int totalRows) {
+                        if (rowsWritten >= 2000) exporter.cancel();
+                    }
+                });
+
+        assertTrue(exporter.isCancelled());
+        assertEquals(2000, written);
+    }
+}
@@ -0,0 +1,111 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryRecordsTest {
+
+    DiscoveryRecords mRecords;
+
+    @Before
+    public void setUp() {
+        mRecords = new DiscoveryRecords();
+    }
+
+    static Map<String, String> record(String ssid) {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put(P2pService.RECORD_SSID, ssid);
+        record.put(P2pService.RECORD_PRESHARED_KEY, "key");
+        return record;
+    }
+
+    @Test
+    public void findDeviceBySsid_returnsAdvertisingDevice() {
+        mRecords.put("aa:aa", record("DIRECT-aa"));
+        mRecords.put("bb:bb", record("DIRECT-bb"));
+
+        assertEquals("aa:aa", mRecords.findDeviceBySsid("DIRECT-aa"));
+        assertEquals("bb:bb", mRecords.findDeviceBySsid("DIRECT-bb"));
+        assertNull(mRecords.findDeviceBySsid("eduroam"));
+        assertEquals(2, mRecords.size());
+    }
+
+    @Test
+    public void put_newSsidForDevice_dropsOldSsid() {
+        mRecords.put("aa:aa", record("DIRECT-old"));
+        mRecords.put("aa:aa", record("DIRECT-new"));
+
+        assertNull(mRecords.findDeviceBySsid("DIRECT-old"));
+        assertEquals("aa:aa", mRecords.findDeviceBySsid("DIRECT-new"));
+        assertEquals("DIRECT-new", mRecords.get("aa:aa").get(P2pService.RECORD_SSID));
+        assertEquals(1, mRecords.size());
+    }
+
+    @Test
+    public void put_ssidTakenOverByAnotherDevice_keepsNewOwner() {
+        mRecords.put("aa:aa", record("DIRECT-x"));
+        mRecords.put("bb:bb", record("DIRECT-x"));
+        mRecords.put("aa:aa", record("DIRECT-y"));
+
+        assertEquals("bb:bb", mRecords.findDeviceBySsid("DIRECT-x"));
+        assertEquals("aa:aa", mRecords.findDeviceBySsid("DIRECT-y"));
+    }
+
+    @Test
+    public void expiredRecords_areNotFoundAndEvicted() {
+        DiscoveryRecords records = new DiscoveryRecords(1000, 100);
+        records.put("aa:aa", record("DIRECT-aa"), 0);
+        records.put("bb:bb", record("DIRECT-bb"), 500);
+
+        assertEquals("aa:aa", records.findDeviceBySsid("DIRECT-aa", 1000));
+        assertNull(records.findDeviceBySsid("DIRECT-aa", 1001));
+        assertNull(records.get("aa:aa", 1001));
+
+        assertEquals(1, records.evictExpired(1001));
+        assertEquals(1, records.size());
+        assertEquals("bb:bb", records.findDeviceBySsid("DIRECT-bb", 1001));
+    }
+
+    @Test
+    public void readvertising_keepsRecordAlive() {
+        DiscoveryRecords records = new DiscoveryRecords(1000, 100);
+        records.put("aa:aa", record("DIRECT-aa"), 0);
+        records.put("bb:bb", record("DIRECT-bb"), 100);
+        records.put("aa:aa", record("DIRECT-aa"), 900);
+
+        assertEquals(1, records.evictExpired(1500));
+        assertEquals("aa:aa", records.findDeviceBySsid("DIRECT-aa", 1500));
+    }
+
+    @Test
+    public void size_isBoundedByEvictingLeastRecentlySeen() {
+        DiscoveryRecords records = new DiscoveryRecords(60 * 1000, 3);
+        for (int i = 0; i < 5; i++) records.put("device" + i, record("DIRECT-" + i), i);
+
+        assertEquals(3, records.size());
+        assertNull(records.get("device0", 10));
+        assertNull(records.findDeviceBySsid("DIRECT-1", 10));
+        assertEquals("device4", records.findDeviceBySsid("DIRECT-4", 10));
+    }
+
+    @Test
+    public void storedRecord_isAnImmutableCopy() {
+        Map<String, String> advertised = record("DIRECT-aa");
+        mRecords.put("aa:aa", advertised);
+        advertised.put(P2pService.RECORD_SSID, "DIRECT-changed");
+
+        Map<String, String> stored = mRecords.get("aa:aa");
+        assertEquals("DIRECT-aa", stored.get(P2pService.RECORD_SSID));
+        try {
+            stored.put(P2pService.RECORD_SSID, "DIRECT-changed");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HandshakeCodecTest {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    HandshakeCodec mCodec;
+    HandshakeCodec.Message mMessage;
+
+    @Before
+    public void setUp() {
+        mCodec = new HandshakeCodec();
+        mMessage = new HandshakeCodec.Message();
+    }
+
+    byte[] encode(boolean binary, byte type, String id, int nonce) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mCodec.write(out, binary, type, id, nonce);
+        return out.toByteArray();
+    }
+
+    void decode(byte[] bytes) throws Exception {
+        assertTrue(mCodec.read(new ByteArrayInputStream(bytes), mMessage));
+    }
+
+    @Test
+    public void binary_roundTripsIdsWithColonsAndUnicode() throws Exception {
+        String[] ids = {"z1234567", "id:with:colons", "Zoë 学生", ""};
+        for (String id : ids) {
+            byte[] frame = encode(true, HandshakeCodec.TYPE_INSTRUCTOR, id, -123456);
+            assertEquals(HandshakeCodec.MAGIC, frame[0]);
+
+            decode(frame);
+            assertEquals(HandshakeCodec.TYPE_INSTRUCTOR, mMessage.mType);
+            assertEquals(id, mMessage.mId);
+            assertEquals(-123456, mMessage.mNonce);
+            assertTrue(mMessage.mBinary);
+        }
+    }
+
+    @Test
+    public void text_matchesOriginalFormat() throws Exception {
+        assertEquals("Instructor:i42:987654\n",
+                new String(encode(false, HandshakeCodec.TYPE_INSTRUCTOR, "i42", 987654), UTF_8));
+        assertEquals("Student:z1234567\n",
+                new String(encode(false, HandshakeCodec.TYPE_STUDENT, "z1234567", 5), UTF_8));
+    }
+
+    @Test
+    public void text_parsesOriginalLines() throws Exception {
+        decode("Instructor:i42:987654\r\n".getBytes(UTF_8));
+        assertEquals(HandshakeCodec.TYPE_INSTRUCTOR, mMessage.mType);
+        assertEquals("i42", mMessage.mId);
+        assertEquals(987654, mMessage.mNonce);
+        assertFalse(mMessage.mBinary);
+
+        decode("Student:z1234567\n".getBytes(UTF_8));
+        assertEquals(HandshakeCodec.TYPE_STUDENT, mMessage.mType);
+        assertEquals("z1234567", mMessage.mId);
+    }
+
+    @Test
+    public void text_idWithColon_isKeptWhole() throws Exception {
+        decode(encode(false, HandshakeCodec.TYPE_INSTRUCTOR, "a:b", 7));
+        assertEquals("a:b", mMessage.mId);
+        assertEquals(7, mMessage.mNonce);
+
+        decode(encode(false, HandshakeCodec.TYPE_STUDENT, "c:d", 0));
+        assertEquals("c:d", mMessage.mId);
+    }
+
+    @Test
+    public void consecutiveMessages_areReadFromOneStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mCodec.write(out, true, HandshakeCodec.TYPE_INSTRUCTOR, "i1", 1);
+        mCodec.write(out, false, HandshakeCodec.TYPE_STUDENT, "s2", 0);
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        assertTrue(mCodec.read(in, mMessage));
+        assertEquals("i1", mMessage.mId);
+        assertTrue(mCodec.read(in, mMessage));
+        assertEquals("s2", mMessage.mId);
+        assertFalse(mCodec.read(in, mMessage));
+    }
+
+    @Test
+    public void byteBuffer_waitsForWholeMessage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mCodec.write(out, true, HandshakeCodec.TYPE_INSTRUCTOR, "i1", 1);
+        mCodec.write(out, false, HandshakeCodec.TYPE_INSTRUCTOR, "i:2", 2);
+        byte[] bytes = out.toByteArray();
+
+        // Feed one byte at a time, as a non-blocking channel might
+        ByteBuffer buffer = ByteBuffer.allocate(HandshakeCodec.MAX_MESSAGE_SIZE + 1);
+        List<String> decoded = new ArrayList<>();
+        for (byte b : bytes) {
+            buffer.put(b);
+            buffer.flip();
+            while (mCodec.read(buffer, mMessage)) decoded.add(mMessage.mId + ":" + mMessage.mNonce);
+            buffer.compact();
+        }
+        assertEquals(Arrays.asList("i1:1", "i:2:2"), decoded);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void byteBuffer_writesSameBytesAsStream() throws Exception {
+        byte[] expected = encode(true, HandshakeCodec.TYPE_STUDENT, "z1234567", 3);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        mCodec.write(buffer, true, HandshakeCodec.TYPE_STUDENT, "z1234567", 3);
+        assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void byteBuffer_unterminatedLongLine_throws() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(HandshakeCodec.MAX_MESSAGE_SIZE + 1);
+        while (buffer.hasRemaining()) buffer.put((byte) 'x');
+        buffer.flip();
+        mCodec.read(buffer, mMessage);
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedFrame_throws() throws Exception {
+        byte[] frame = encode(true, HandshakeCodec.TYPE_STUDENT, "z1234567", 1);
+        byte[] truncated = new byte[frame.length - 2];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        decode(truncated);
+    }
+
+    @Test
+    public void text_overLongIds_throwProtocolException() throws Exception {
+        // Longest ID that fits beside the prefix, ':', a six digit nonce and the terminator
+        int longest = HandshakeCodec.MAX_MESSAGE_SIZE - P2pService.INSTRUCTOR_MESSAGE_PREFIX.length() - 8;
+        assertEquals(HandshakeCodec.MAX_MESSAGE_SIZE, encode(false, HandshakeCodec.TYPE_INSTRUCTOR,
+                repeat('x', longest), 123456).length);
+
+        // Including those filling the buffer exactly before the separator or the terminator
+        for (int idLength = longest + 1; idLength <= longest + 9; idLength++) {
+            try {
+                encode(false, HandshakeCodec.TYPE_INSTRUCTOR, repeat('x', idLength), 123456);
+                fail("Expected ProtocolException for an ID of " + idLength);
+            } catch (ProtocolException e) {
+                // Expected
+            }
+        }
+    }
+
+    static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unknownVersion_throws() throws Exception {
+        byte[] frame = encode(true, HandshakeCodec.TYPE_STUDENT, "z1234567", 1);
+        frame[1] = 2;
+        decode(frame);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unknownTextPrefix_throws() throws Exception {
+        decode("Hello:world\n".getBytes(UTF_8));
+    }
+
+    @Test
+    public void text_nonceLimits_areParsed() throws Exception {
+        decode("Instructor:i42:2147483647\n".getBytes(UTF_8));
+        assertEquals(Integer.MAX_VALUE, mMessage.mNonce);
+        decode("Instructor:i42:-2147483648\n".getBytes(UTF_8));
+        assertEquals(Integer.MIN_VALUE, mMessage.mNonce);
+    }
+
+    @Test
+    public void text_malformedNonces_throwProtocolException() throws Exception {
+        String[] nonces = {"-", "", "12a", "2147483648", "-2147483649", "99999999999"};
+        for (String nonce : nonces) {
+            try {
+                decode(("Instructor:i42:" + nonce + "\n").getBytes(UTF_8));
+                fail("Expected ProtocolException for \"" + nonce + "\", got " + mMessage.mNonce);
+            } catch (ProtocolException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void supportsBinary_onlyForAdvertisedVersion() {
+        assertTrue(HandshakeCodec.supportsBinary("1"));
+        assertTrue(HandshakeCodec.supportsBinary("2"));
+        assertFalse(HandshakeCodec.supportsBinary(null));
+        assertFalse(HandshakeCodec.supportsBinary("x"));
+
+        assertFalse(HandshakeCodec.supportsSession("1"));
+        assertTrue(HandshakeCodec.supportsSession("2"));
+        assertFalse(HandshakeCodec.supportsSession(null));
+    }
+
+    @Test
+    public void backlogRecord_carriesTimestamp() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mCodec.writeFrame(out, HandshakeCodec.TYPE_BACKLOG_RECORD, "i:42", -5, 1476789012345L);
+        mCodec.writeFrame(out, HandshakeCodec.TYPE_CONFIRM, "i42", 6, 99);
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        assertTrue(mCodec.read(in, mMessage));
+        assertEquals(HandshakeCodec.TYPE_BACKLOG_RECORD, mMessage.mType);
+        assertEquals("i:42", mMessage.mId);
+        assertEquals(-5, mMessage.mNonce);
+        assertEquals(1476789012345L, mMessage.mTimestamp);
+
+        // Only backlog records carry a timestamp
+        assertTrue(mCodec.read(in, mMessage));
+        assertEquals(HandshakeCodec.TYPE_CONFIRM, mMessage.mType);
+        assertEquals(6, mMessage.mNonce);
+        assertEquals(0, mMessage.mTimestamp);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void sessionFrame_hasNoTextForm() throws Exception {
+        encode(false, HandshakeCodec.TYPE_BACKLOG_REQUEST, "i42", 10);
+    }
+}
@@ -0,0 +1,357 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs instructor and student through LoopbackTransport, storing records with the app's own SQL
+ * in an SQLite database for each side
+ */
+public class HandshakeEndToEndTest {
+    static final String INSTRUCTOR_ID = "i42";
+    static final String STUDENT_ID = "z1234567";
+    static final String DEVICE = "aa:bb:cc:dd:ee:ff";
+    static final String BINARY_PROTOCOL = String.valueOf(HandshakeCodec.BINARY_PROTOCOL);
+    static final String SESSION_PROTOCOL = String.valueOf(HandshakeCodec.SESSION_PROTOCOL);
+
+    Connection mInstructorDb;
+    Connection mStudentDb;
+
+    LoopbackTransport mTransport;
+    StudentServer mServer;
+    int mPort;
+
+    WriteBehindQueue<AttendanceRecord> mQueue;
+    InstructorHandshake mHandshake;
+
+    /**
+     * Drop records instead of writing them, as if the instructor stopped before they were written
+     */
+    volatile boolean mLosingRecords;
+
+    /**
+     * Offer the instructor an earlier handshake with another instructor, which fails the session
+     */
+    volatile boolean mForeignBacklog;
+
+    final BacklogSnapshot mBacklog = new BacklogSnapshot();
+
+    /**
+     * The student side of StudentService, against JDBC. Writes on the server's thread rather than
+     * a writer thread, so that each exchange is stored by the time it returns.
+     */
+    final StudentServer.Listener mStudent = new StudentServer.Listener() {
+        @Override
+        public void onMessage(HandshakeCodec.Message message, long timestamp) {
+            insertStudentRecord(message.mId, message.mNonce, timestamp);
+        }
+
+        @Override
+        public void onFailed(String reason, long timestamp) {
+        }
+
+        @Override
+        public void onConfirm(String instructorId, int nonce) {
+            synchronized (mStudentDb) {
+                try {
+                    PreparedStatement update = mStudentDb.prepareStatement(AttendanceDatabase.UPDATE_STUDENT_SYNCED);
+                    update.setString(1, instructorId);
+                    update.setString(2, STUDENT_ID);
+                    update.setInt(3, nonce);
+                    update.executeUpdate();
+                    update.close();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            mBacklog.confirm(instructorId, nonce);
+        }
+
+        @Override
+        public List<AttendanceRecord> getBacklog(String instructorId, int limit) {
+            List<AttendanceRecord> backlog = mBacklog.get(instructorId, limit);
+            if (mForeignBacklog) backlog.add(new AttendanceRecord("other", null, STUDENT_ID, 4, 1476789000000L));
+            return backlog;
+        }
+
+        @Override
+        public void onMetadata(String instructorId, String metadata) {
+        }
+    };
+
+    /**
+     * The instructor side of InstructorService and AttendanceWriter, against JDBC
+     */
+    final InstructorHandshake.Store mInstructor = new InstructorHandshake.Store() {
+        @Override
+        public void store(AttendanceRecord record) {
+            if (!mLosingRecords) mQueue.enqueue(record);
+        }
+
+        @Override
+        public boolean commit(List<AttendanceRecord> records) {
+            for (AttendanceRecord record : records) insertInstructorRecord(record);
+            return true;
+        }
+
+        @Override
+        public boolean holds(String studentId, int rand) {
+            synchronized (mInstructorDb) {
+                try {
+                    PreparedStatement select = mInstructorDb.prepareStatement(AttendanceDatabase.SELECT_INSTRUCTOR_RECORD);
+                    select.setString(1, INSTRUCTOR_ID);
+                    select.setString(2, studentId);
+                    select.setInt(3, rand);
+                    boolean holds = select.executeQuery().next();
+                    select.close();
+                    return holds;
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    };
+
+    final WriteBehindQueue.Sink<AttendanceRecord> mWriter = new WriteBehindQueue.Sink<AttendanceRecord>() {
+        @Override
+        public void write(List<AttendanceRecord> batch) {
+            for (AttendanceRecord record : batch) insertInstructorRecord(record);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mInstructorDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+        mStudentDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = mInstructorDb.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+        statement.close();
+        statement = mStudentDb.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_STUDENT_TABLE);
+        statement.execute(AttendanceDatabase.CREATE_STUDENT_BACKLOG_INDEX);
+        statement.close();
+
+        mTransport = new LoopbackTransport();
+        mServer = new StudentServer(mTransport, STUDENT_ID, mStudent, 1000);
+        mPort = mServer.bind();
+        mServer.start();
+
+        mQueue = new WriteBehindQueue<>(mWriter, 16, 10);
+        mQueue.start();
+        mHandshake = new InstructorHandshake(INSTRUCTOR_ID, mInstructor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        mServer.join(1000);
+        mQueue.close();
+        mInstructorDb.close();
+        mStudentDb.close();
+    }
+
+    void insertStudentRecord(String instructorId, int rand, long timestamp) {
+        synchronized (mStudentDb) {
+            try {
+                PreparedStatement insert = mStudentDb.prepareStatement(AttendanceDatabase.INSERT_STUDENT_ATTENDANCE);
+                insert.setString(1, STUDENT_ID);
+                insert.setString(2, instructorId);
+                insert.setInt(3, rand);
+                insert.setLong(4, timestamp / 1000);
+                insert.executeUpdate();
+                insert.close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        mBacklog.add(new AttendanceRecord(instructorId, null, STUDENT_ID, rand, timestamp / 1000 * 1000));
+    }
+
+    /**
+     * Reload the student's backlog from the database, as StudentService does when it starts
+     */
+    void restartStudent() throws Exception {
+        List<AttendanceRecord> records = new ArrayList<>();
+        synchronized (mStudentDb) {
+            PreparedStatement select = mStudentDb.prepareStatement(AttendanceDatabase.SELECT_STUDENT_UNCONFIRMED);
+            select.setString(1, STUDENT_ID);
+            ResultSet rows = select.executeQuery();
+            while (rows.next()) {
+                records.add(new AttendanceRecord(rows.getString(1), null, STUDENT_ID,
+                        rows.getInt(2), rows.getLong(3) * 1000));
+            }
+            select.close();
+        }
+        mBacklog.load(records);
+    }
+
+    void insertInstructorRecord(AttendanceRecord record) {
+        synchronized (mInstructorDb) {
+            try {
+                PreparedStatement insert = mInstructorDb.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+                insert.setString(1, record.mInstructorId);
+                insert.setString(2, record.mStudentDevice);
+                insert.setString(3, record.mStudentId);
+                insert.setInt(4, record.mRand);
+                insert.setLong(5, record.mTimestamp / 1000);
+                insert.executeUpdate();
+                insert.close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    InstructorHandshake.Result register(String protocol) throws Exception {
+        SocketConnector.Result connected = new SocketConnector(mTransport, 100, 10, 50, 500)
+                .connect(InetAddress.getLoopbackAddress(), mPort);
+        assertEquals(SocketConnector.Outcome.CONNECTED, connected.mOutcome);
+
+        Transport.Connection connection = connected.mConnection;
+        try {
+            connection.setReadTimeout(2000);
+            return mHandshake.run(connection, DEVICE, protocol);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Wait for the write-behind queue to commit
+     */
+    void flush() throws Exception {
+        mQueue.close();
+        mQueue = new WriteBehindQueue<>(mWriter, 16, 10);
+        mQueue.start();
+    }
+
+    int count(Connection db, String sql) throws Exception {
+        synchronized (db) {
+            Statement statement = db.createStatement();
+            ResultSet rows = statement.executeQuery(sql);
+            int count = rows.getInt(1);
+            statement.close();
+            return count;
+        }
+    }
+
+    int unsynced() throws Exception {
+        return count(mStudentDb, "SELECT COUNT(*) FROM " + AttendanceDatabase.STUDENT_TABLE + " WHERE synced = 0;");
+    }
+
+    int instructorRecords() throws Exception {
+        return count(mInstructorDb, "SELECT COUNT(*) FROM " + AttendanceDatabase.INSTRUCTOR_TABLE + ";");
+    }
+
+    @Test
+    public void session_recordsBothSidesAndConfirms() throws Exception {
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL);
+        assertEquals(STUDENT_ID, result.mStudentId);
+        assertEquals(0, result.mRecovered);
+        flush();
+
+        assertEquals(1, instructorRecords());
+        assertEquals(1, count(mStudentDb, "SELECT COUNT(*) FROM " + AttendanceDatabase.STUDENT_TABLE +
+                " WHERE instructor_id = '" + INSTRUCTOR_ID + "' AND rand = " + result.mNonce + " AND synced = 1;"));
+    }
+
+    @Test
+    public void session_recoversHandshakesTheInstructorLost() throws Exception {
+        // Three earlier handshakes the student never had confirmed, the instructor lost two of them
+        mLosingRecords = true;
+        int lost = register(BINARY_PROTOCOL).mNonce;
+        int tampered = register(BINARY_PROTOCOL).mNonce;
+        mLosingRecords = false;
+        register(BINARY_PROTOCOL);
+        flush();
+        assertEquals(1, instructorRecords());
+
+        // The student moves one back a day, and adds one the instructor never issued
+        Statement statement = mStudentDb.createStatement();
+        statement.execute("UPDATE " + AttendanceDatabase.STUDENT_TABLE +
+                " SET timestamp = datetime(timestamp, '-1 day') WHERE rand = " + tampered + ";");
+        statement.close();
+        long now = System.currentTimeMillis();
+        insertStudentRecord(INSTRUCTOR_ID, 1000000, now);
+
+        // And one with another instructor, which is not this instructor's to confirm
+        insertStudentRecord("other", 4, now);
+        restartStudent();
+
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL);
+        assertEquals(1, result.mRecovered);
+        flush();
+
+        assertEquals(3, instructorRecords());
+        assertEquals(1, count(mInstructorDb, "SELECT COUNT(*) FROM " + AttendanceDatabase.INSTRUCTOR_TABLE +
+                " WHERE rand = " + lost + ";"));
+        assertEquals(3, unsynced());
+
+        // Nothing left to recover the next time round
+        assertEquals(0, register(SESSION_PROTOCOL).mRecovered);
+        flush();
+        assertEquals(4, instructorRecords());
+        assertEquals(3, unsynced());
+    }
+
+    @Test
+    public void session_failingAfterTheHandshake_stillRegistersTheDevice() throws Exception {
+        RegistrationTracker tracker = new RegistrationTracker();
+        tracker.markVisible(DEVICE, -50);
+        tracker.queueVisible(0);
+        assertEquals(DEVICE, tracker.beginNext());
+
+        // As WifiConnectionThread does: registered unless the handshake throws
+        mForeignBacklog = true;
+        InstructorHandshake.Result result = null;
+        try {
+            result = register(SESSION_PROTOCOL);
+        } finally {
+            tracker.finish(DEVICE, result != null);
+        }
+        flush();
+
+        assertEquals(STUDENT_ID, result.mStudentId);
+        assertTrue(result.mSessionError instanceof ProtocolException);
+        assertEquals(RegistrationTracker.State.REGISTERED, tracker.getState(DEVICE));
+        assertEquals(1, instructorRecords());
+    }
+
+    @Test
+    public void olderStudents_getASingleExchange() throws Exception {
+        insertStudentRecord(INSTRUCTOR_ID, 1, 1476789000000L);
+
+        // Text for students advertising nothing, binary without a session for protocol 1
+        assertEquals(STUDENT_ID, register(null).mStudentId);
+        assertEquals(STUDENT_ID, register(BINARY_PROTOCOL).mStudentId);
+        flush();
+
+        assertEquals(2, instructorRecords());
+        assertEquals(3, unsynced());
+    }
+
+    @Test
+    public void nothingListening_isRefused() throws Exception {
+        SocketConnector.Result result = new SocketConnector(mTransport, 100, 10, 50, 200)
+                .connect(InetAddress.getLoopbackAddress(), mPort + 1);
+        assertEquals(SocketConnector.Outcome.REFUSED, result.mOutcome);
+        assertNull(result.mConnection);
+    }
+}
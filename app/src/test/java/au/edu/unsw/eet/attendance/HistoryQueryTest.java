@@ -0,0 +1,58 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * The history query run by MainActivity against the version 2 indexes. Its cost with and without
+ * the index is measured by HistoryQueryBenchmark in the benchmarks module.
+ */
+public class HistoryQueryTest {
+    static final String HISTORY_QUERY = "SELECT * FROM instructor_attendance " +
+            "WHERE instructor_id = ? ORDER BY ROWID DESC;";
+
+    @Test
+    public void historyQuery_usesIndex() throws Exception {
+        String detail = plan(HISTORY_QUERY.replace("?", "'ABCD1234'"));
+
+        assertTrue(detail, detail.contains("USING INDEX"));
+        assertFalse(detail, detail.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void keysetPageQuery_seeksBelowTheKey() throws Exception {
+        String detail = plan(HistoryLoader.pageQuery(MainActivity.INSTRUCTOR_MODE, true)
+                .replaceFirst("\\?", "'ABCD1234'").replace("?", "50"));
+
+        assertTrue(detail, detail.contains("USING INDEX"));
+        assertTrue(detail, detail.contains("rowid<?"));
+        assertFalse(detail, detail.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * @return the query plan on an instructor table with the version 2 index
+     */
+    static String plan(String sql) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+            statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+
+            ResultSet plan = statement.executeQuery("EXPLAIN QUERY PLAN " + sql);
+            StringBuilder detail = new StringBuilder();
+            while (plan.next()) detail.append(plan.getString(4)).append('\n');
+            statement.close();
+            return detail.toString();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * The precompiled, parameter-bound insert used by the services against the old String.format()
+ * + execSQL() path, on an in-memory SQLite database. Their relative cost is measured by
+ * InsertBenchmark in the benchmarks module.
+ */
+public class InsertStatementTest {
+
+    Connection mConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = mConnection.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    @Test
+    public void preparedInsert_acceptsQuotes() throws Exception {
+        PreparedStatement statement = mConnection.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+        statement.setString(1, "ABCD1234");
+        statement.setString(2, "aa:bb:cc:dd:ee:ff");
+        statement.setString(3, "O'Brien");
+        statement.setInt(4, 42);
+        statement.setLong(5, System.currentTimeMillis() / 1000);
+        statement.executeUpdate();
+        statement.close();
+
+        assertEquals(1, count());
+    }
+
+    @Test(expected = SQLException.class)
+    public void formattedInsert_breaksOnQuotes() throws Exception {
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(formatInsert("ABCD1234", "aa:bb:cc:dd:ee:ff", "O'Brien", 42));
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * The insert path used before statements were precompiled
+     */
+    static String formatInsert(String instructorId, String studentDevice, String studentId, int rand) {
+        return String.format(
+                "INSERT INTO instructor_attendance " +
+                        "(instructor_id, student_device, student_id, rand) " +
+                        "VALUES('%s', '%s', '%s', %d);",
+                instructorId,
+                studentDevice,
+                studentId,
+                rand);
+    }
+
+    private int count() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM instructor_attendance;");
+        int count = resultSet.getInt(1);
+        statement.close();
+        return count;
+    }
+}
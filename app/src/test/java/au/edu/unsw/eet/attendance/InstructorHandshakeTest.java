@@ -0,0 +1,257 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * InstructorHandshake against a scripted student, checking what it accepts from a student's
+ * backlog
+ */
+public class InstructorHandshakeTest {
+    static final String INSTRUCTOR_ID = "i42";
+    static final String STUDENT_ID = "z1234567";
+    static final String DEVICE = "aa:bb:cc:dd:ee:ff";
+    static final String BINARY_PROTOCOL = String.valueOf(HandshakeCodec.BINARY_PROTOCOL);
+    static final String SESSION_PROTOCOL = String.valueOf(HandshakeCodec.SESSION_PROTOCOL);
+
+    final List<AttendanceRecord> mStored = new ArrayList<>();
+
+    /**
+     * Records the instructor stores but loses, as if it stopped before they were written
+     */
+    boolean mLosingRecords;
+
+    /**
+     * Roll back every commit, as if the database could not be written
+     */
+    boolean mFailingCommits;
+
+    final InstructorHandshake.Store mStore = new InstructorHandshake.Store() {
+        @Override
+        public void store(AttendanceRecord record) {
+            if (!mLosingRecords) mStored.add(record);
+        }
+
+        @Override
+        public boolean commit(List<AttendanceRecord> records) {
+            if (mFailingCommits) return false;
+            mStored.addAll(records);
+            return true;
+        }
+
+        @Override
+        public boolean holds(String studentId, int rand) {
+            for (AttendanceRecord record : mStored) {
+                if (record.mStudentId.equals(studentId) && record.mRand == rand) return true;
+            }
+            return false;
+        }
+    };
+
+    InstructorHandshake mHandshake;
+    HandshakeCodec mCodec;
+
+    /**
+     * Connection of the last registration
+     */
+    ScriptedConnection mConnection;
+
+    /**
+     * Plays back what the student sends and keeps what the instructor sends
+     */
+    static class ScriptedConnection implements Transport.Connection {
+        final InputStream mIn;
+        final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        ScriptedConnection(byte[] script) {
+            mIn = new ByteArrayInputStream(script);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mIn;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOut;
+        }
+
+        @Override
+        public void setReadTimeout(int millis) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mHandshake = new InstructorHandshake(INSTRUCTOR_ID, mStore);
+        mCodec = new HandshakeCodec();
+    }
+
+    /**
+     * Register the student, with the backlog frames given sent during the session
+     */
+    InstructorHandshake.Result register(String protocol, ByteArrayOutputStream backlog) throws IOException {
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        mCodec.write(script, true, HandshakeCodec.TYPE_STUDENT, STUDENT_ID, 0);
+        if (backlog != null) {
+            backlog.writeTo(script);
+            mCodec.writeFrame(script, HandshakeCodec.TYPE_BACKLOG_END, "", 0, 0);
+        }
+        mConnection = new ScriptedConnection(script.toByteArray());
+        return mHandshake.run(mConnection, DEVICE, protocol);
+    }
+
+    /**
+     * @return nonces the instructor confirmed in the last registration
+     */
+    List<Integer> confirmed() throws IOException {
+        InputStream sent = new ByteArrayInputStream(mConnection.mOut.toByteArray());
+        HandshakeCodec.Message message = new HandshakeCodec.Message();
+        List<Integer> confirmed = new ArrayList<>();
+        while (mCodec.read(sent, message)) {
+            if (message.mType == HandshakeCodec.TYPE_CONFIRM) confirmed.add(message.mNonce);
+        }
+        return confirmed;
+    }
+
+    /**
+     * @return nonce of a handshake the student holds but the instructor lost
+     */
+    int registerAndLose() throws IOException {
+        mLosingRecords = true;
+        try {
+            return register(BINARY_PROTOCOL, null).mNonce;
+        } finally {
+            mLosingRecords = false;
+        }
+    }
+
+    void addRecord(ByteArrayOutputStream backlog, String instructorId, int rand, long timestamp) throws IOException {
+        mCodec.writeFrame(backlog, HandshakeCodec.TYPE_BACKLOG_RECORD, instructorId, rand, timestamp);
+    }
+
+    @Test
+    public void backlog_recoversOnlyNoncesIssuedToTheDevice() throws Exception {
+        long issuedAround = System.currentTimeMillis();
+        int lost = registerAndLose();
+        int tampered = registerAndLose();
+
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, INSTRUCTOR_ID, lost, issuedAround);
+        addRecord(backlog, INSTRUCTOR_ID, tampered, issuedAround - 24 * 60 * 60 * 1000);
+        addRecord(backlog, INSTRUCTOR_ID, 1000000, issuedAround); // Outside the range ever issued
+
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL, backlog);
+        assertEquals(1, result.mRecovered);
+        assertEquals(2, mStored.size());
+        assertTrue(mStore.holds(STUDENT_ID, lost));
+        assertFalse(mStore.holds(STUDENT_ID, tampered));
+
+        // Stored with the instructor's own time of issue
+        AttendanceRecord recovered = mStored.get(1);
+        assertEquals(DEVICE, recovered.mStudentDevice);
+        assertTrue(Math.abs(recovered.mTimestamp - issuedAround) < 5000);
+    }
+
+    @Test
+    public void session_confirmsCommittedRecords() throws Exception {
+        int lost = registerAndLose();
+
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, INSTRUCTOR_ID, lost, System.currentTimeMillis());
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL, backlog);
+
+        assertEquals(1, result.mRecovered);
+        assertEquals(Arrays.asList(result.mNonce, lost), confirmed());
+    }
+
+    @Test
+    public void session_failedCommit_confirmsNothing() throws Exception {
+        int lost = registerAndLose();
+
+        mFailingCommits = true;
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, INSTRUCTOR_ID, lost, System.currentTimeMillis());
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL, backlog);
+
+        // The student keeps both to offer again, the handshake is still queued for writing
+        assertNull(result.mSessionError);
+        assertEquals(0, result.mRecovered);
+        assertTrue(confirmed().isEmpty());
+        assertEquals(1, mStored.size());
+        assertEquals(result.mNonce, mStored.get(0).mRand);
+    }
+
+    @Test
+    public void backlog_confirmsHeldRecordsWithoutStoringThemAgain() throws Exception {
+        int held = register(BINARY_PROTOCOL, null).mNonce;
+
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, INSTRUCTOR_ID, held, System.currentTimeMillis());
+        assertEquals(0, register(SESSION_PROTOCOL, backlog).mRecovered);
+        assertEquals(2, mStored.size());
+    }
+
+    @Test
+    public void backlog_ignoresNoncesIssuedToAnotherDevice() throws Exception {
+        mLosingRecords = true;
+        ScriptedConnection other = new ScriptedConnection(new byte[0]);
+        mHandshake.run(other, "11:22:33:44:55:66", BINARY_PROTOCOL);
+        mLosingRecords = false;
+
+        // The other device's nonce, as sent to it
+        HandshakeCodec.Message sent = new HandshakeCodec.Message();
+        assertTrue(mCodec.read(new ByteArrayInputStream(other.mOut.toByteArray()), sent));
+
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, INSTRUCTOR_ID, sent.mNonce, System.currentTimeMillis());
+        assertEquals(0, register(SESSION_PROTOCOL, backlog).mRecovered);
+        assertEquals(1, mStored.size());
+    }
+
+    @Test
+    public void backlog_withAnotherInstructor_failsTheSession() throws Exception {
+        int lost = registerAndLose();
+
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        addRecord(backlog, "other", lost, System.currentTimeMillis());
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL, backlog);
+
+        // The handshake itself is still stored and reported
+        assertEquals(STUDENT_ID, result.mStudentId);
+        assertTrue(result.mSessionError instanceof ProtocolException);
+        assertEquals(0, result.mRecovered);
+        assertEquals(1, mStored.size());
+    }
+
+    @Test
+    public void backlog_longerThanRequested_failsTheSession() throws Exception {
+        ByteArrayOutputStream backlog = new ByteArrayOutputStream();
+        for (int i = 0; i <= InstructorHandshake.SESSION_BACKLOG_LIMIT; i++) {
+            addRecord(backlog, INSTRUCTOR_ID, 1000000 + i, System.currentTimeMillis());
+        }
+
+        InstructorHandshake.Result result = register(SESSION_PROTOCOL, backlog);
+        assertTrue(result.mSessionError instanceof ProtocolException);
+
+        // The handshake itself is stored before the session starts
+        assertEquals(1, mStored.size());
+    }
+}
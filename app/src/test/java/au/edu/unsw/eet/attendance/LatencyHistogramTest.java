@@ -0,0 +1,80 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    static final double RELATIVE_ERROR = 1.0 / LatencyHistogram.SUB_BUCKETS;
+
+    @Test
+    public void bucket_containsItsValues() {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456, 1L << 30, LatencyHistogram.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highestEquivalentValue(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestEquivalentValue(index - 1));
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100000; micros++) histogram.record(micros);
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * RELATIVE_ERROR);
+        assertEquals(95000, histogram.getValueAtPercentile(95), 95000 * RELATIVE_ERROR);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * RELATIVE_ERROR);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void empty_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        histogram.record(5000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) histogram.recordNanos(i * 1000L);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMax());
+    }
+
+    @Test
+    public void dump_listsEveryPhaseInMilliseconds() throws Exception {
+        RegistrationMetrics metrics = new RegistrationMetrics();
+        for (int i = 1; i <= 100; i++) metrics.getHistogram(RegistrationMetrics.Phase.SCAN).record(i * 1000);
+
+        StringWriter writer = new StringWriter();
+        metrics.dump(writer);
+        String[] lines = writer.toString().split("\n");
+
+        assertEquals(RegistrationMetrics.Phase.values().length + 1, lines.length);
+        assertTrue(lines[0].startsWith("phase"));
+        String scan = lines[1 + RegistrationMetrics.Phase.SCAN.ordinal()];
+        assertTrue(scan, scan.matches("SCAN\\s+100\\s+50\\.\\d\\s+9\\d\\.\\d\\s+\\d+\\.\\d\\s+100\\.0\\s*"));
+    }
+}
@@ -0,0 +1,220 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PagedWindowTest {
+
+    /**
+     * Serves rows 0..mSize-1 where a larger number is newer, keyed by their value. Requests are
+     * answered when deliver() is called, and counted.
+     */
+    class CountingLoader implements PagedWindow.PageLoader<Integer> {
+        int mSize = 0;
+        int mLoads = 0;
+        int mOffsetLoads = 0;
+        final List<int[]> mRequests = new ArrayList<int[]>();
+
+        @Override
+        public long getKey(Integer row) {
+            return row;
+        }
+
+        @Override
+        public void requestPage(int page, int request, long newerKey, int offset, int limit) {
+            mLoads++;
+            if (newerKey == PagedWindow.NO_KEY && offset > 0) mOffsetLoads++;
+            int newest = newerKey != PagedWindow.NO_KEY ? (int) newerKey - 1 : mSize - 1 - offset;
+            mRequests.add(new int[]{page, request, newest, limit});
+        }
+
+        List<Integer> rows(int newest, int limit) {
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = newest; i >= 0 && rows.size() < limit; i--) rows.add(i);
+            return rows;
+        }
+
+        /**
+         * Hand every outstanding page to the window
+         */
+        void deliver() {
+            for (int[] request : mRequests) {
+                mWindow.putPage(request[0], request[1], rows(request[2], request[3]));
+            }
+            mRequests.clear();
+        }
+    }
+
+    CountingLoader mLoader;
+    PagedWindow<Integer> mWindow;
+
+    /**
+     * @return the row, loading its page first if it is not held
+     */
+    Integer load(int position) {
+        Integer row = mWindow.get(position);
+        if (row == null) {
+            mLoader.deliver();
+            row = mWindow.get(position);
+        }
+        return row;
+    }
+
+    @Before
+    public void setUp() {
+        mLoader = new CountingLoader();
+        mWindow = new PagedWindow<Integer>(mLoader, 10, 3);
+    }
+
+    @Test
+    public void get_returnsNewestFirst() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+
+        for (int position = 0; position < 25; position++) {
+            assertEquals(Integer.valueOf(24 - position), load(position));
+        }
+        assertEquals(3, mLoader.mLoads);
+        assertEquals(0, mLoader.mOffsetLoads);
+    }
+
+    @Test
+    public void pagesHeld_areBounded() {
+        mLoader.mSize = 1000;
+        mWindow.reset(1000);
+
+        for (int position = 0; position < 1000; position++) load(position);
+
+        assertEquals(100, mLoader.mLoads);
+        assertEquals(3, mWindow.getPageCount());
+
+        // Scrolling back up finds the evicted pages by key
+        for (int position = 999; position >= 0; position--) {
+            assertEquals(Integer.valueOf(999 - position), load(position));
+        }
+        assertEquals(0, mLoader.mOffsetLoads);
+    }
+
+    @Test
+    public void append_keepsFullPagesAndReloadsPartialPage() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+        for (int position = 0; position < 25; position++) load(position);
+        assertEquals(3, mLoader.mLoads);
+
+        mLoader.mSize = 27;
+        mWindow.append(2);
+        assertEquals(27, mWindow.getCount());
+
+        // Oldest rows keep their pages
+        assertEquals(Integer.valueOf(0), load(26));
+        assertEquals(Integer.valueOf(19), load(7));
+        assertEquals(3, mLoader.mLoads);
+
+        // Newest page was partial so it is reloaded with the new rows
+        assertEquals(Integer.valueOf(26), load(0));
+        assertEquals(Integer.valueOf(20), load(6));
+        assertEquals(4, mLoader.mLoads);
+    }
+
+    @Test
+    public void append_withNewestPage_isNotLoadedAgain() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+
+        mLoader.mSize = 27;
+        mWindow.append(2, mLoader.rows(26, 7));
+        assertEquals(0, mLoader.mLoads);
+
+        assertEquals(Integer.valueOf(26), load(0));
+        assertEquals(Integer.valueOf(20), load(6));
+        assertEquals(0, mLoader.mLoads);
+    }
+
+    @Test
+    public void appendRows_extendsHeldNewestPageWithoutLoading() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+        assertEquals(Integer.valueOf(24), load(0));
+        assertEquals(1, mLoader.mLoads);
+
+        // Newest first, crossing into a new page
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 31; i >= 25; i--) rows.add(i);
+        mLoader.mSize = 32;
+        mWindow.appendRows(rows);
+        assertEquals(32, mWindow.getCount());
+
+        for (int position = 0; position < 12; position++) {
+            assertEquals(Integer.valueOf(31 - position), load(position));
+        }
+        assertEquals(1, mLoader.mLoads);
+    }
+
+    @Test
+    public void appendRows_toPartialPageNotHeld_loadsItLater() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+
+        mLoader.mSize = 26;
+        mWindow.appendRows(Collections.singletonList(25));
+        assertEquals(0, mLoader.mLoads);
+
+        assertEquals(Integer.valueOf(25), load(0));
+        assertEquals(Integer.valueOf(20), load(5));
+        assertEquals(1, mLoader.mLoads);
+    }
+
+    @Test
+    public void get_returnsNullUntilThePageArrives() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+
+        assertNull(mWindow.get(0));
+        assertNull(mWindow.get(1));
+        assertEquals(1, mLoader.mLoads);
+
+        mLoader.deliver();
+        assertEquals(Integer.valueOf(23), mWindow.get(1));
+    }
+
+    @Test
+    public void pageChangedWhileLoading_isDroppedAndAskedForAgain() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+        assertNull(mWindow.get(0));
+
+        // The newest page gains a row before its load comes back
+        mLoader.mSize = 26;
+        mWindow.appendRows(Collections.singletonList(25));
+        mLoader.deliver();
+        assertEquals(26, mWindow.getCount());
+
+        assertEquals(Integer.valueOf(25), load(0));
+        assertEquals(Integer.valueOf(20), load(5));
+        assertEquals(2, mLoader.mLoads);
+    }
+
+    @Test
+    public void pageFromBeforeReset_isDropped() {
+        mLoader.mSize = 25;
+        mWindow.reset(25);
+        assertNull(mWindow.get(24));
+
+        mWindow.reset(25);
+        mLoader.deliver();
+        assertNull(mWindow.get(24));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRange_throws() {
+        mWindow.reset(5);
+        mWindow.get(5);
+    }
+}
@@ -0,0 +1,93 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the query InstructorService resumes from against SQLite, using the app's own DDL
+ */
+public class RegisteredDevicesTest {
+    static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    Connection mConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = mConnection.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    void insert(String instructorId, String studentDevice, long timestamp) throws Exception {
+        PreparedStatement insert = mConnection.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+        insert.setString(1, instructorId);
+        insert.setString(2, studentDevice);
+        insert.setString(3, "z" + studentDevice);
+        insert.setInt(4, 0);
+        insert.setLong(5, timestamp / 1000);
+        insert.executeUpdate();
+        insert.close();
+    }
+
+    Set<String> registeredSince(String instructorId, long sessionStart) throws Exception {
+        PreparedStatement select = mConnection.prepareStatement(AttendanceDatabase.SELECT_REGISTERED_DEVICES);
+        select.setString(1, instructorId);
+        select.setString(2, String.valueOf(sessionStart / 1000));
+
+        Set<String> devices = new HashSet<String>();
+        ResultSet rows = select.executeQuery();
+        while (rows.next()) devices.add(rows.getString(1));
+        rows.close();
+        select.close();
+        return devices;
+    }
+
+    @Test
+    public void onlyTodaysDevicesOfSameInstructor_areReturned() throws Exception {
+        long sessionStart = InstructorHandshake.startOfDay(System.currentTimeMillis());
+
+        insert("instructor", "aa:aa", sessionStart + 1000);
+        insert("instructor", "aa:aa", sessionStart + 2000);
+        insert("instructor", "bb:bb", sessionStart + 3000);
+        insert("instructor", "cc:cc", sessionStart - 1000); // Yesterday
+        insert("other", "dd:dd", sessionStart + 1000);
+
+        Set<String> expected = new HashSet<String>();
+        expected.add("aa:aa");
+        expected.add("bb:bb");
+        assertEquals(expected, registeredSince("instructor", sessionStart));
+    }
+
+    @Test
+    public void startOfDay_isLocalMidnight() {
+        long now = System.currentTimeMillis();
+        long start = InstructorHandshake.startOfDay(now);
+
+        assertTrue(start <= now && now - start < DAY_MS);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(start);
+        assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, calendar.get(Calendar.MINUTE));
+    }
+}
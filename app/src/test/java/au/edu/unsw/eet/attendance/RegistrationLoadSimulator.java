@@ -0,0 +1,371 @@
+package au.edu.unsw.eet.attendance;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Classroom-scale simulation of the instructor's registration pipeline on the JVM. The real
+ * RegistrationTracker, SocketConnector, InstructorHandshake and StudentServer register a class of
+ * simulated students over localhost TCP or LoopbackTransport. Wi-Fi association is replaced by a
+ * configurable delay and failure rate.
+ * <p> As on a real Wi-Fi Direct network, the instructor can only reach the student whose group it
+ * is associated with, so each student's server is started when the association "completes" and
+ * shut down once the handshake is over. </p>
+ * <p> RegistrationLoadSimulatorTest covers small runs. Classroom-scale runs are made directly with
+ * "name=value" arguments naming fields of Config without their prefix, for example
+ * <code>students=1000 transport=TCP associationDelayMillis=50 associationFailureRate=0.05</code>.
+ * </p>
+ */
+public class RegistrationLoadSimulator {
+    static final String INSTRUCTOR_ID = "instructor";
+
+    enum TransportType {
+        LOOPBACK,
+        TCP
+    }
+
+    static class Config {
+        int mStudents = 50;
+        TransportType mTransport = TransportType.LOOPBACK;
+
+        /**
+         * Time from picking a device to its network being usable, uniformly spread by the jitter
+         */
+        long mAssociationDelayMillis = 0;
+        long mAssociationJitterMillis = 0;
+
+        /**
+         * Chance that an attempt never gets a usable network
+         */
+        double mAssociationFailureRate = 0;
+
+        /**
+         * Chance that an attempt finds nothing listening on the student's port
+         */
+        double mStudentFailureRate = 0;
+
+        /**
+         * Earlier handshakes each student holds that the instructor issued but lost, recovered
+         * through sessions
+         */
+        int mBacklogPerStudent = 0;
+
+        /**
+         * Value students advertise under RECORD_PROTOCOL, null for text only
+         */
+        String mProtocol = String.valueOf(HandshakeCodec.SESSION_PROTOCOL);
+
+        /**
+         * Scans after which devices still not registered are given up on
+         */
+        int mMaxScans = 10;
+
+        boolean mPriorityScheduler = false;
+        int mConnectTimeoutMillis = 100;
+        long mConnectBudgetMillis = 200;
+        long mReadTimeoutMillis = 2000;
+        long mSeed = 1;
+
+        /**
+         * Set a field from its name without the "m" prefix
+         */
+        void set(String name, String value) throws ReflectiveOperationException {
+            java.lang.reflect.Field field = Config.class.getDeclaredField("m" + name.substring(0, 1).toUpperCase(Locale.US)
+                    + name.substring(1));
+            Class<?> type = field.getType();
+            if (type == int.class) field.setInt(this, Integer.parseInt(value));
+            else if (type == long.class) field.setLong(this, Long.parseLong(value));
+            else if (type == double.class) field.setDouble(this, Double.parseDouble(value));
+            else if (type == boolean.class) field.setBoolean(this, Boolean.parseBoolean(value));
+            else if (type == TransportType.class) field.set(this, TransportType.valueOf(value.toUpperCase(Locale.US)));
+            else field.set(this, "null".equals(value) ? null : value);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d students over %s, protocol %s, association %d+/-%d ms, "
+                            + "%.0f%% association and %.0f%% student failures, %d backlog each",
+                    mStudents, mTransport, mProtocol, mAssociationDelayMillis, mAssociationJitterMillis,
+                    mAssociationFailureRate * 100, mStudentFailureRate * 100, mBacklogPerStudent);
+        }
+    }
+
+    static class Report {
+        final Config mConfig;
+        int mRegistered;
+        int mAttempts;
+        int mAssociationFailures;
+        int mConnectFailures;
+        int mHandshakeFailures;
+        int mRecovered;
+        long mElapsedMillis;
+
+        /**
+         * Time from picking a device to the end of its handshake, successful attempts only
+         */
+        final LatencyHistogram mLatency = new LatencyHistogram();
+
+        Report(Config config) {
+            mConfig = config;
+        }
+
+        double getRegistrationsPerMinute() {
+            return mElapsedMillis == 0 ? 0 : mRegistered * 60000.0 / mElapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s%n"
+                            + "registered %d/%d in %d attempts, %.1f s: %.1f registrations/min%n"
+                            + "latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n"
+                            + "failures: %d association, %d connect, %d handshake; %d earlier handshakes recovered",
+                    mConfig, mRegistered, mConfig.mStudents, mAttempts, mElapsedMillis / 1000.0,
+                    getRegistrationsPerMinute(),
+                    mLatency.getValueAtPercentile(50) / 1000.0, mLatency.getValueAtPercentile(90) / 1000.0,
+                    mLatency.getValueAtPercentile(99) / 1000.0, mLatency.getMax() / 1000.0,
+                    mAssociationFailures, mConnectFailures, mHandshakeFailures, mRecovered);
+        }
+    }
+
+    /**
+     * A student device, holding its records in memory
+     */
+    static class SimulatedStudent implements StudentServer.Listener {
+        final String mDeviceAddress;
+        final String mStudentId;
+        final int mLevel;
+
+        /**
+         * Handshakes not yet confirmed, by nonce, oldest first
+         */
+        final LinkedHashMap<Integer, AttendanceRecord> mUnconfirmed = new LinkedHashMap<>();
+
+        SimulatedStudent(int index, int level) {
+            mDeviceAddress = String.format(Locale.US, "02:00:00:%02x:%02x:%02x",
+                    (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+            mStudentId = "z" + (5000000 + index);
+            mLevel = level;
+        }
+
+        @Override
+        public synchronized void onMessage(HandshakeCodec.Message message, long timestamp) {
+            mUnconfirmed.put(message.mNonce, new AttendanceRecord(message.mId, null, mStudentId,
+                    message.mNonce, timestamp));
+        }
+
+        @Override
+        public void onFailed(String reason, long timestamp) {
+        }
+
+        @Override
+        public synchronized void onConfirm(String instructorId, int nonce) {
+            mUnconfirmed.remove(nonce);
+        }
+
+        @Override
+        public synchronized List<AttendanceRecord> getBacklog(String instructorId, int limit) {
+            List<AttendanceRecord> backlog = new ArrayList<>();
+            Iterator<AttendanceRecord> records = mUnconfirmed.values().iterator();
+            while (records.hasNext() && backlog.size() < limit) {
+                AttendanceRecord record = records.next();
+                if (record.mInstructorId.equals(instructorId)) backlog.add(record);
+            }
+            return backlog;
+        }
+
+        @Override
+        public void onMetadata(String instructorId, String metadata) {
+        }
+    }
+
+    /**
+     * Instructor's records in memory, in place of the write-behind queue and database
+     */
+    static class MemoryStore implements InstructorHandshake.Store {
+        final Set<String> mRecords = Collections.synchronizedSet(new HashSet<String>());
+
+        /**
+         * Drop records instead of keeping them, as if the instructor stopped before writing them
+         */
+        volatile boolean mLosingRecords;
+
+        @Override
+        public void store(AttendanceRecord record) {
+            if (!mLosingRecords) mRecords.add(record.mStudentId + ":" + record.mRand);
+        }
+
+        @Override
+        public boolean commit(List<AttendanceRecord> records) {
+            for (AttendanceRecord record : records) store(record);
+            return true;
+        }
+
+        @Override
+        public boolean holds(String studentId, int rand) {
+            return mRecords.contains(studentId + ":" + rand);
+        }
+    }
+
+    private final Config mConfig;
+    private final Random mRandom;
+    private final Transport mTransport;
+    private final Map<String, SimulatedStudent> mStudents = new LinkedHashMap<>();
+    final MemoryStore mStore = new MemoryStore();
+
+    RegistrationLoadSimulator(Config config) {
+        mConfig = config;
+        mRandom = new Random(config.mSeed);
+        mTransport = config.mTransport == TransportType.TCP
+                ? new TcpTransport(InetAddress.getLoopbackAddress()) : new LoopbackTransport();
+    }
+
+    Report run() throws IOException, InterruptedException {
+        Report report = new Report(mConfig);
+        RegistrationTracker tracker = new RegistrationTracker(mConfig.mPriorityScheduler
+                ? new PriorityRegistrationScheduler() : new FifoRegistrationScheduler());
+        InstructorHandshake handshake = new InstructorHandshake(INSTRUCTOR_ID, mStore);
+        SocketConnector connector = new SocketConnector(mTransport, mConfig.mConnectTimeoutMillis,
+                InstructorService.CONNECT_INITIAL_BACKOFF_MS / 10, InstructorService.CONNECT_MAX_BACKOFF_MS / 10,
+                mConfig.mConnectBudgetMillis);
+
+        for (int i = 0; i < mConfig.mStudents; i++) {
+            SimulatedStudent student = new SimulatedStudent(i, -40 - mRandom.nextInt(50));
+            if (mConfig.mBacklogPerStudent > 0) seedBacklog(student, handshake, connector);
+            mStudents.put(student.mDeviceAddress, student);
+        }
+
+        long start = System.nanoTime();
+        for (SimulatedStudent student : mStudents.values()) tracker.markDiscovered(student.mDeviceAddress);
+        for (int scan = 0; scan < mConfig.mMaxScans; scan++) {
+            // Every student not yet registered is in range
+            for (SimulatedStudent student : mStudents.values()) {
+                tracker.markVisible(student.mDeviceAddress, student.mLevel);
+            }
+            if (tracker.queueVisible(System.currentTimeMillis()) == 0) break;
+
+            String deviceAddress;
+            while ((deviceAddress = tracker.beginNext()) != null) {
+                boolean registered = register(mStudents.get(deviceAddress), handshake, connector, report);
+                tracker.finish(deviceAddress, registered);
+                if (registered) report.mRegistered++;
+            }
+        }
+        report.mElapsedMillis = (System.nanoTime() - start) / 1000000;
+        return report;
+    }
+
+    /**
+     * Give a student earlier handshakes that the instructor issued but lost, left unconfirmed by
+     * running them without a session
+     */
+    private void seedBacklog(SimulatedStudent student, InstructorHandshake handshake, SocketConnector connector)
+            throws IOException, InterruptedException {
+        StudentServer server = new StudentServer(mTransport, student.mStudentId, student, mConfig.mReadTimeoutMillis);
+        int port = server.bind();
+        server.start();
+        mStore.mLosingRecords = true;
+        try {
+            for (int i = 0; i < mConfig.mBacklogPerStudent; i++) {
+                SocketConnector.Result connected = connector.connect(InetAddress.getLoopbackAddress(), port);
+                if (connected.mOutcome != SocketConnector.Outcome.CONNECTED) {
+                    throw new IOException("Could not seed the backlog of " + student.mStudentId);
+                }
+                try {
+                    connected.mConnection.setReadTimeout((int) mConfig.mReadTimeoutMillis);
+                    handshake.run(connected.mConnection, student.mDeviceAddress,
+                            String.valueOf(HandshakeCodec.BINARY_PROTOCOL));
+                } finally {
+                    connected.mConnection.close();
+                }
+            }
+        } finally {
+            mStore.mLosingRecords = false;
+            server.shutdown();
+            server.join();
+        }
+    }
+
+    private boolean register(SimulatedStudent student, InstructorHandshake handshake, SocketConnector connector,
+                             Report report) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        report.mAttempts++;
+
+        long delay = mConfig.mAssociationDelayMillis;
+        if (mConfig.mAssociationJitterMillis > 0) {
+            delay += (long) ((mRandom.nextDouble() * 2 - 1) * mConfig.mAssociationJitterMillis);
+        }
+        if (delay > 0) Thread.sleep(delay);
+        if (mRandom.nextDouble() < mConfig.mAssociationFailureRate) {
+            report.mAssociationFailures++;
+            return false;
+        }
+
+        StudentServer server = null;
+        int port;
+        if (mRandom.nextDouble() < mConfig.mStudentFailureRate) {
+            // A port that nothing listens on
+            Transport.Acceptor dead = mTransport.listen(0);
+            port = dead.getPort();
+            dead.close();
+        } else {
+            server = new StudentServer(mTransport, student.mStudentId, student, mConfig.mReadTimeoutMillis);
+            port = server.bind();
+            server.start();
+        }
+
+        try {
+            SocketConnector.Result connected = connector.connect(InetAddress.getLoopbackAddress(), port);
+            if (connected.mOutcome != SocketConnector.Outcome.CONNECTED) {
+                report.mConnectFailures++;
+                return false;
+            }
+
+            InstructorHandshake.Result result;
+            try {
+                connected.mConnection.setReadTimeout((int) mConfig.mReadTimeoutMillis);
+                result = handshake.run(connected.mConnection, student.mDeviceAddress, mConfig.mProtocol);
+            } catch (IOException e) {
+                report.mHandshakeFailures++;
+                return false;
+            } finally {
+                connected.mConnection.close();
+            }
+            if (result.mStudentId == null) {
+                report.mHandshakeFailures++;
+                return false;
+            }
+
+            report.mRecovered += result.mRecovered;
+            report.mLatency.recordNanos(System.nanoTime() - start);
+            return true;
+        } finally {
+            if (server != null) {
+                server.shutdown();
+                server.join();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Usage: RegistrationLoadSimulator [name=value ...], "
+                        + "for example students=1000 transport=TCP; got \"" + arg + "\"");
+            }
+            config.set(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        System.out.println(new RegistrationLoadSimulator(config).run());
+    }
+}
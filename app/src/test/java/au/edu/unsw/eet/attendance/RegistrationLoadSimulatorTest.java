@@ -0,0 +1,59 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Small runs of RegistrationLoadSimulator, see its main() for classroom-scale ones
+ */
+public class RegistrationLoadSimulatorTest {
+
+    @Test
+    public void loopback_registersEveryStudentAndRecoversTheirBacklog() throws Exception {
+        RegistrationLoadSimulator.Config config = new RegistrationLoadSimulator.Config();
+        config.mStudents = 20;
+        config.mBacklogPerStudent = 2;
+
+        RegistrationLoadSimulator.Report report = new RegistrationLoadSimulator(config).run();
+        assertEquals(20, report.mRegistered);
+        assertEquals(20, report.mAttempts);
+        assertEquals(40, report.mRecovered);
+        assertEquals(20, report.mLatency.getCount());
+    }
+
+    @Test
+    public void tcp_retriesInjectedFailuresOnLaterScans() throws Exception {
+        RegistrationLoadSimulator.Config config = new RegistrationLoadSimulator.Config();
+        config.mStudents = 20;
+        config.mTransport = RegistrationLoadSimulator.TransportType.TCP;
+        config.mAssociationFailureRate = 0.2;
+        config.mStudentFailureRate = 0.2;
+        config.mPriorityScheduler = true;
+
+        RegistrationLoadSimulator.Report report = new RegistrationLoadSimulator(config).run();
+        assertEquals(20, report.mRegistered);
+        assertTrue(report.mAssociationFailures > 0);
+        assertTrue(report.mConnectFailures > 0);
+        assertEquals(20 + report.mAssociationFailures + report.mConnectFailures + report.mHandshakeFailures,
+                report.mAttempts);
+        assertEquals(20, report.mLatency.getCount());
+    }
+
+    @Test
+    public void textProtocol_recoversNothing() throws Exception {
+        RegistrationLoadSimulator.Config config = new RegistrationLoadSimulator.Config();
+        config.mStudents = 10;
+        config.mBacklogPerStudent = 1;
+        config.mProtocol = null;
+
+        RegistrationLoadSimulator.Report report = new RegistrationLoadSimulator(config).run();
+        assertEquals(10, report.mRegistered);
+        assertEquals(0, report.mRecovered);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void main_withoutEquals_throwsUsage() throws Exception {
+        RegistrationLoadSimulator.main(new String[]{"students"});
+    }
+}
@@ -0,0 +1,120 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RegistrationSchedulerTest {
+
+    @Test
+    public void priority_prefersStrongThenFewerFailures() {
+        PriorityRegistrationScheduler scheduler = new PriorityRegistrationScheduler();
+        scheduler.add(new RegistrationScheduler.Candidate("weak", -88, 0, 0));
+        scheduler.add(new RegistrationScheduler.Candidate("flapping", -50, 3, 0));
+        scheduler.add(new RegistrationScheduler.Candidate("strong", -50, 0, 0));
+        scheduler.add(new RegistrationScheduler.Candidate("fair", -70, 0, 0));
+
+        assertEquals("strong", scheduler.poll().mDeviceAddress);
+        assertEquals("fair", scheduler.poll().mDeviceAddress);
+        assertEquals("flapping", scheduler.poll().mDeviceAddress);
+        assertEquals("weak", scheduler.poll().mDeviceAddress);
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void priority_waitingLongEnough_overtakesStrongerDevice() {
+        PriorityRegistrationScheduler scheduler = new PriorityRegistrationScheduler();
+        scheduler.add(new RegistrationScheduler.Candidate("weak", -88, 0, 0));
+        scheduler.add(new RegistrationScheduler.Candidate("strong", -50, 0, 3 * 60 * 1000));
+
+        assertEquals("weak", scheduler.poll().mDeviceAddress);
+    }
+
+    @Test
+    public void fifo_keepsQueueOrder() {
+        FifoRegistrationScheduler scheduler = new FifoRegistrationScheduler();
+        scheduler.add(new RegistrationScheduler.Candidate("weak", -88, 0, 0));
+        scheduler.add(new RegistrationScheduler.Candidate("strong", -50, 0, 0));
+
+        assertEquals("weak", scheduler.poll().mDeviceAddress);
+        assertEquals("strong", scheduler.poll().mDeviceAddress);
+        assertEquals(0, scheduler.size());
+    }
+
+    /**********************************************************************************************
+     * Simulated lecture hall
+     **********************************************************************************************/
+
+    static final int DEVICES = 150;
+    static final long SCAN_MS = 3 * 1000;
+    static final long SUCCESS_MS = 5 * 1000;
+
+    /**
+     * Association plus the whole socket connect budget
+     */
+    static final long FAILURE_MS = 3 * 1000 + InstructorService.CONNECT_BUDGET_MS;
+
+    /**
+     * Run registrations against a fixed population of devices
+     *
+     * @return number of devices registered by each horizon
+     */
+    static int[] simulate(RegistrationScheduler scheduler, long[] horizons) {
+        Random population = new Random(42);
+        int[] levels = new int[DEVICES];
+        boolean[] flapping = new boolean[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            levels[i] = -45 - population.nextInt(48); // -45 to -92 dBm
+            flapping[i] = population.nextInt(10) == 0;
+        }
+
+        RegistrationTracker tracker = new RegistrationTracker(scheduler);
+        Random jitter = new Random(7);
+        int[] registered = new int[horizons.length];
+        long now = 0;
+        long end = horizons[horizons.length - 1];
+
+        while (now < end) {
+            now += SCAN_MS;
+            for (int i = 0; i < DEVICES; i++) {
+                tracker.markVisible("device" + i, levels[i] - 4 + jitter.nextInt(9));
+            }
+            tracker.queueVisible(now);
+
+            String deviceAddress;
+            while (now < end && (deviceAddress = tracker.beginNext()) != null) {
+                int device = Integer.parseInt(deviceAddress.substring("device".length()));
+
+                // Same outcome for the same attempt whatever the policy
+                Random outcome = new Random(device * 1000L + tracker.getFailures(deviceAddress));
+                double chance = Math.max(0.05, Math.min(0.97, (levels[device] + 95) / 30.0));
+                if (flapping[device]) chance *= 0.3;
+                boolean success = outcome.nextDouble() < chance;
+
+                now += success ? SUCCESS_MS : FAILURE_MS;
+                tracker.finish(deviceAddress, success);
+                if (success) {
+                    for (int h = 0; h < horizons.length; h++) {
+                        if (now <= horizons[h]) registered[h]++;
+                    }
+                }
+            }
+        }
+        return registered;
+    }
+
+    @Test
+    public void simulation_priorityRegistersMoreThanFifo() {
+        long[] horizons = {2 * 60 * 1000, 5 * 60 * 1000, 10 * 60 * 1000};
+        int[] fifo = simulate(new FifoRegistrationScheduler(), horizons);
+        int[] priority = simulate(new PriorityRegistrationScheduler(), horizons);
+
+        String registered = "fifo " + Arrays.toString(fifo) + ", priority " + Arrays.toString(priority);
+        assertTrue(registered, priority[0] > fifo[0]);
+        assertTrue(registered, priority[1] > fifo[1]);
+        assertTrue(registered, priority[2] >= fifo[2]);
+    }
+}
@@ -0,0 +1,126 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RegistrationTrackerTest {
+
+    RegistrationTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mTracker = new RegistrationTracker();
+    }
+
+    @Test
+    public void visibleDevices_areConnectedInOrderSeen() {
+        for (String device : new String[]{"a", "b", "c"}) {
+            mTracker.markDiscovered(device);
+            assertTrue(mTracker.markVisible(device, -50));
+        }
+        assertEquals(RegistrationTracker.State.VISIBLE, mTracker.getState("a"));
+        assertEquals(3, mTracker.queueVisible(0));
+        assertFalse(mTracker.isIdle());
+
+        assertEquals("a", mTracker.beginNext());
+        assertNull(mTracker.beginNext()); // One at a time
+        mTracker.finish("a", true);
+
+        assertEquals("b", mTracker.beginNext());
+        mTracker.finish("b", true);
+        assertEquals("c", mTracker.beginNext());
+        mTracker.finish("c", true);
+
+        assertNull(mTracker.beginNext());
+        assertTrue(mTracker.isIdle());
+    }
+
+    @Test
+    public void markVisible_ignoresQueuedConnectingAndRegistered() {
+        mTracker.markVisible("a", -50);
+        mTracker.markVisible("b", -50);
+        mTracker.markVisible("c", -50);
+        mTracker.queueVisible(0);
+        mTracker.beginNext();
+        mTracker.finish("a", true);
+        mTracker.beginNext();
+
+        assertFalse(mTracker.markVisible("a", -50)); // Registered
+        assertFalse(mTracker.markVisible("b", -50)); // Connecting
+        assertFalse(mTracker.markVisible("c", -50)); // Queued
+        assertEquals(0, mTracker.queueVisible(0));
+        assertEquals(1, mTracker.getQueuedCount());
+    }
+
+    @Test
+    public void failedDevice_isQueuedAgainWhenSeen() {
+        mTracker.markVisible("a", -50);
+        mTracker.queueVisible(0);
+        mTracker.beginNext();
+        mTracker.finish("a", false);
+        assertEquals(RegistrationTracker.State.FAILED, mTracker.getState("a"));
+        assertNull(mTracker.getConnecting());
+
+        assertTrue(mTracker.markVisible("a", -50));
+        mTracker.queueVisible(0);
+        assertEquals("a", mTracker.beginNext());
+        assertEquals(RegistrationTracker.State.CONNECTING, mTracker.getState("a"));
+    }
+
+    @Test
+    public void failures_areCounted() {
+        mTracker.markVisible("a", -50);
+        mTracker.queueVisible(0);
+        mTracker.beginNext();
+        mTracker.finish("a", false);
+        mTracker.markVisible("a", -50);
+        mTracker.queueVisible(0);
+        mTracker.beginNext();
+        mTracker.finish("a", false);
+
+        assertEquals(2, mTracker.getFailures("a"));
+        assertEquals(0, mTracker.getFailures("b"));
+    }
+
+    @Test
+    public void stagedDevice_isConnectedNext() {
+        for (String device : new String[]{"a", "b", "c"}) mTracker.markVisible(device, -50);
+        mTracker.queueVisible(0);
+        assertEquals("a", mTracker.beginNext());
+
+        assertEquals("b", mTracker.stageNext());
+        assertEquals("b", mTracker.stageNext()); // Already staged
+        assertEquals(RegistrationTracker.State.QUEUED, mTracker.getState("b"));
+        assertEquals(2, mTracker.getQueuedCount());
+
+        mTracker.finish("a", true);
+        assertEquals("b", mTracker.beginNext());
+        mTracker.finish("b", true);
+        assertEquals("c", mTracker.stageNext());
+        assertFalse(mTracker.isIdle());
+        assertEquals("c", mTracker.beginNext());
+        mTracker.finish("c", true);
+        assertNull(mTracker.stageNext());
+        assertTrue(mTracker.isIdle());
+    }
+
+    @Test
+    public void registeredEarlier_isNotQueued() {
+        mTracker.markRegistered("a");
+        mTracker.markDiscovered("a");
+
+        assertFalse(mTracker.markVisible("a", -50));
+        assertEquals(0, mTracker.queueVisible(0));
+        assertEquals(RegistrationTracker.State.REGISTERED, mTracker.getState("a"));
+    }
+
+    @Test
+    public void markDiscovered_keepsExistingState() {
+        mTracker.markVisible("a", -50);
+        mTracker.queueVisible(0);
+        mTracker.markDiscovered("a");
+        assertEquals(RegistrationTracker.State.QUEUED, mTracker.getState("a"));
+    }
+}
@@ -0,0 +1,114 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+
+    static final long MIN_BACKOFF_MS = 20;
+    static final long MAX_BACKOFF_MS = 160;
+    static final long LONG_MS = 5 * 1000;
+
+    RegistrationTracker mTracker;
+    ScanScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mTracker = new RegistrationTracker();
+        mScheduler = new ScanScheduler(mTracker, MIN_BACKOFF_MS, MAX_BACKOFF_MS, LONG_MS);
+    }
+
+    /**
+     * Run an event on another thread after a short delay
+     */
+    static Thread later(final Runnable event) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                event.run();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void emptyScans_backOffToMaximum_andQueuedDevicesReset() {
+        long[] expected = {40, 80, 160, 160};
+        for (long backoff : expected) {
+            mScheduler.onScanResults(0);
+            assertEquals(backoff, mScheduler.getBackoff());
+        }
+
+        mScheduler.onScanResults(3);
+        assertEquals(MIN_BACKOFF_MS, mScheduler.getBackoff());
+    }
+
+    @Test
+    public void newDevice_cutsLongBackoffShort() throws Exception {
+        ScanScheduler scheduler = new ScanScheduler(mTracker, 200, LONG_MS, LONG_MS);
+        for (int i = 0; i < 4; i++) scheduler.onScanResults(0);
+        assertTrue(scheduler.getNextScanAt() - System.currentTimeMillis() > 2000);
+
+        final ScanScheduler target = scheduler;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                target.onNewDevice();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        scheduler.awaitNextScan();
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(200, scheduler.getBackoff());
+    }
+
+    @Test
+    public void busyQueue_blocksUntilDrained() throws Exception {
+        mTracker.markVisible("a", -50);
+        mTracker.queueVisible(0);
+        assertEquals("a", mTracker.beginNext());
+
+        later(new Runnable() {
+            @Override
+            public void run() {
+                mTracker.finish("a", true);
+                mScheduler.onQueueDrained();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        mScheduler.awaitNextScan();
+        assertTrue(mTracker.isIdle());
+        assertTrue(System.currentTimeMillis() - start < MAX_BACKOFF_MS * 2);
+    }
+
+    @Test
+    public void awaitDiscovery_returnsOnNewDevice() throws Exception {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.onNewDevice();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        mScheduler.awaitDiscovery();
+        assertTrue(System.currentTimeMillis() - start < LONG_MS);
+    }
+
+    @Test
+    public void missingScanResults_scanAgainAfterMaximumBackoff() {
+        long before = System.currentTimeMillis();
+        mScheduler.onScanStarted();
+        assertTrue(mScheduler.getNextScanAt() >= before + MAX_BACKOFF_MS);
+    }
+}
@@ -0,0 +1,104 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class SocketConnectorTest {
+
+    static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+
+    @Test
+    public void listeningServer_connectsFirstTime() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, LOCALHOST);
+        try {
+            SocketConnector.Result result = new SocketConnector(1000, 50, 200, 2000)
+                    .connect(LOCALHOST, server.getLocalPort());
+
+            assertEquals(SocketConnector.Outcome.CONNECTED, result.mOutcome);
+            assertEquals(1, result.mAttempts);
+            assertNotNull(result.mConnection);
+            result.mConnection.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void closedPort_isRefusedWithinBudget() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, LOCALHOST);
+        int port = server.getLocalPort();
+        server.close();
+
+        long start = System.currentTimeMillis();
+        SocketConnector.Result result = new SocketConnector(1000, 20, 100, 500).connect(LOCALHOST, port);
+
+        assertEquals(SocketConnector.Outcome.REFUSED, result.mOutcome);
+        assertNull(result.mConnection);
+        assertTrue(result.mAttempts > 1);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void serverStartingLate_isConnectedOnRetry() throws Exception {
+        ServerSocket probe = new ServerSocket(0, 50, LOCALHOST);
+        final int port = probe.getLocalPort();
+        probe.close();
+
+        final ServerSocket[] server = new ServerSocket[1];
+        Thread starter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    server[0] = new ServerSocket(port, 50, LOCALHOST);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        starter.start();
+
+        SocketConnector.Result result = new SocketConnector(1000, 50, 100, 3000).connect(LOCALHOST, port);
+        starter.join();
+        try {
+            assertEquals(SocketConnector.Outcome.CONNECTED, result.mOutcome);
+            assertTrue(result.mAttempts > 1);
+            result.mConnection.close();
+        } finally {
+            if (server[0] != null) server[0].close();
+        }
+    }
+
+    @Test
+    public void unresponsiveServer_timesOutWithinBudget() throws Exception {
+        // A server that never accepts stops answering once its backlog is full
+        ServerSocket server = new ServerSocket(0, 1, LOCALHOST);
+        List<Transport.Connection> fillers = new ArrayList<Transport.Connection>();
+        try {
+            SocketConnector filler = new SocketConnector(200, 10, 10, 200);
+            SocketConnector.Result result;
+            do {
+                result = filler.connect(LOCALHOST, server.getLocalPort());
+                if (result.mConnection != null) fillers.add(result.mConnection);
+            } while (result.mOutcome == SocketConnector.Outcome.CONNECTED && fillers.size() < 16);
+            assumeTrue(result.mOutcome == SocketConnector.Outcome.TIMED_OUT);
+
+            long start = System.currentTimeMillis();
+            result = new SocketConnector(200, 50, 100, 700).connect(LOCALHOST, server.getLocalPort());
+            if (result.mConnection != null) fillers.add(result.mConnection);
+
+            assertEquals(SocketConnector.Outcome.TIMED_OUT, result.mOutcome);
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        } finally {
+            for (Transport.Connection connection : fillers) connection.close();
+            server.close();
+        }
+    }
+}
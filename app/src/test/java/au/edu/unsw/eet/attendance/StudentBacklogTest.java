@@ -0,0 +1,122 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the student backlog statements against SQLite, on a table upgraded from version 2
+ */
+public class StudentBacklogTest {
+    static final String STUDENT_TABLE_V2 = "CREATE TABLE " + AttendanceDatabase.STUDENT_TABLE + "(" +
+            "student_id VARCHAR, " +
+            "instructor_id VARCHAR, " +
+            "rand INT, " +
+            "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP);";
+
+    Connection mConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = mConnection.createStatement();
+        statement.execute(STUDENT_TABLE_V2);
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    void upgrade() throws Exception {
+        Statement statement = mConnection.createStatement();
+        statement.execute(AttendanceDatabase.ADD_STUDENT_SYNCED_COLUMN);
+        statement.execute(AttendanceDatabase.CREATE_STUDENT_BACKLOG_INDEX);
+        statement.close();
+    }
+
+    void insert(String instructorId, int rand, long timestamp) throws Exception {
+        PreparedStatement insert = mConnection.prepareStatement(AttendanceDatabase.INSERT_STUDENT_ATTENDANCE);
+        insert.setString(1, "z1234567");
+        insert.setString(2, instructorId);
+        insert.setInt(3, rand);
+        insert.setLong(4, timestamp / 1000);
+        insert.executeUpdate();
+        insert.close();
+    }
+
+    void confirm(String instructorId, int rand) throws Exception {
+        PreparedStatement update = mConnection.prepareStatement(AttendanceDatabase.UPDATE_STUDENT_SYNCED);
+        update.setString(1, instructorId);
+        update.setString(2, "z1234567");
+        update.setInt(3, rand);
+        update.executeUpdate();
+        update.close();
+    }
+
+    /**
+     * @return "instructor:rand@seconds" of each unconfirmed row, in order
+     */
+    List<String> unconfirmed() throws Exception {
+        PreparedStatement select = mConnection.prepareStatement(AttendanceDatabase.SELECT_STUDENT_UNCONFIRMED);
+        select.setString(1, "z1234567");
+
+        List<String> rows = new ArrayList<>();
+        ResultSet result = select.executeQuery();
+        while (result.next()) rows.add(result.getString(1) + ":" + result.getInt(2) + "@" + result.getLong(3));
+        result.close();
+        select.close();
+        return rows;
+    }
+
+    @Test
+    public void rowsFromBeforeTheUpgrade_areInTheBacklog() throws Exception {
+        insert("i1", 11, 1000000000000L);
+        upgrade();
+        insert("i1", 12, 1000000060000L);
+        insert("i2", 21, 1000000120000L);
+
+        assertEquals(Arrays.asList("i1:11@1000000000", "i1:12@1000000060", "i2:21@1000000120"), unconfirmed());
+    }
+
+    @Test
+    public void confirmedRows_leaveTheBacklog() throws Exception {
+        upgrade();
+        for (int rand = 1; rand <= 5; rand++) insert("i1", rand, rand * 1000L);
+
+        confirm("i1", 2);
+        confirm("i1", 4);
+        confirm("i2", 1); // Another instructor's nonce does not count
+
+        assertEquals(Arrays.asList("i1:1@1", "i1:3@3", "i1:5@5"), unconfirmed());
+    }
+
+    @Test
+    public void unconfirmedQuery_usesIndex() throws Exception {
+        upgrade();
+
+        Statement statement = mConnection.createStatement();
+        ResultSet plan = statement.executeQuery("EXPLAIN QUERY PLAN " +
+                AttendanceDatabase.SELECT_STUDENT_UNCONFIRMED.replace("?", "'z1234567'"));
+        StringBuilder detail = new StringBuilder();
+        while (plan.next()) detail.append(plan.getString(4)).append('\n');
+        statement.close();
+
+        assertTrue(detail.toString(), detail.toString().contains("USING INDEX"));
+        assertFalse(detail.toString(), detail.toString().contains("TEMP B-TREE"));
+    }
+}
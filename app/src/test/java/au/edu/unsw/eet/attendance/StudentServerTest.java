@@ -0,0 +1,273 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StudentServerTest {
+
+    static final long READ_TIMEOUT_MS = 300;
+
+    /**
+     * Records what the server reports, as "id:nonce" or "failed:reason"
+     */
+    final LinkedBlockingQueue<String> mReports = new LinkedBlockingQueue<>();
+
+    final StudentServer.Listener mListener = new StudentServer.Listener() {
+        @Override
+        public void onMessage(HandshakeCodec.Message message, long timestamp) {
+            mReports.add(message.mId + ":" + message.mNonce);
+        }
+
+        @Override
+        public void onFailed(String reason, long timestamp) {
+            mReports.add("failed:" + reason);
+        }
+
+        @Override
+        public void onConfirm(String instructorId, int nonce) {
+            mReports.add("confirm:" + instructorId + ":" + nonce);
+        }
+
+        @Override
+        public List<AttendanceRecord> getBacklog(String instructorId, int limit) {
+            mReports.add("backlog:" + instructorId + ":" + limit);
+            List<AttendanceRecord> backlog = new ArrayList<>();
+            for (int i = 0; i < Math.min(limit, mBacklogSize); i++) {
+                backlog.add(new AttendanceRecord(instructorId, null, "z1234567", i, 1000L * i));
+            }
+            return backlog;
+        }
+
+        @Override
+        public void onMetadata(String instructorId, String metadata) {
+            mReports.add("metadata:" + instructorId + ":" + metadata);
+        }
+    };
+
+    /**
+     * Number of records getBacklog() has to offer
+     */
+    volatile int mBacklogSize = 0;
+
+    StudentServer mServer;
+    int mPort;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StudentServer(new TcpTransport(InetAddress.getLoopbackAddress()), "z1234567",
+                mListener, READ_TIMEOUT_MS);
+        mPort = mServer.bind();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        mServer.join(1000);
+        assertFalse(mServer.isAlive());
+    }
+
+    Socket connect() throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), mPort);
+        socket.setSoTimeout(2000);
+        return socket;
+    }
+
+    HandshakeCodec.Message exchange(boolean binary, String id, int nonce) throws Exception {
+        HandshakeCodec codec = new HandshakeCodec();
+        HandshakeCodec.Message reply = new HandshakeCodec.Message();
+        Socket socket = connect();
+        try {
+            codec.write(socket.getOutputStream(), binary, HandshakeCodec.TYPE_INSTRUCTOR, id, nonce);
+            assertTrue(codec.read(socket.getInputStream(), reply));
+
+            // A binary handshake leaves a session open until the instructor is done
+            if (binary) socket.shutdownOutput();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+        return reply;
+    }
+
+    void awaitNoConnections() throws Exception {
+        for (int i = 0; i < 100 && mServer.getOpenConnections() > 0; i++) Thread.sleep(10);
+        assertEquals(0, mServer.getOpenConnections());
+    }
+
+    String nextReport() throws Exception {
+        String report = mReports.poll(2, TimeUnit.SECONDS);
+        assertNotNull("No report from server", report);
+        return report;
+    }
+
+    @Test
+    public void repliesInTheFormatItWasAddressedIn() throws Exception {
+        HandshakeCodec.Message reply = exchange(true, "i42", 1234);
+        assertTrue(reply.mBinary);
+        assertEquals(HandshakeCodec.TYPE_STUDENT, reply.mType);
+        assertEquals("z1234567", reply.mId);
+        assertEquals(1234, reply.mNonce);
+        assertEquals("i42:1234", nextReport());
+
+        reply = exchange(false, "i43", 99);
+        assertFalse(reply.mBinary);
+        assertEquals("z1234567", reply.mId);
+        assertEquals("i43:99", nextReport());
+    }
+
+    @Test
+    public void session_pipelinedFramesAreAnsweredOnOneConnection() throws Exception {
+        mBacklogSize = StudentServer.MAX_BACKLOG + 50;
+        HandshakeCodec codec = new HandshakeCodec();
+        HandshakeCodec.Message reply = new HandshakeCodec.Message();
+        Socket socket = connect();
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // Everything up to the backlog request in one write
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            codec.write(frames, true, HandshakeCodec.TYPE_INSTRUCTOR, "i42", 5);
+            codec.writeFrame(frames, HandshakeCodec.TYPE_CONFIRM, "i42", 5, 0);
+            codec.writeFrame(frames, HandshakeCodec.TYPE_METADATA, "session=1", 0, 0);
+            codec.writeFrame(frames, HandshakeCodec.TYPE_BACKLOG_REQUEST, "i42", 1000, 0);
+            out.write(frames.toByteArray());
+            out.flush();
+
+            assertTrue(codec.read(in, reply));
+            assertEquals(HandshakeCodec.TYPE_STUDENT, reply.mType);
+            assertEquals(5, reply.mNonce);
+
+            // Capped at MAX_BACKLOG, more than fits in one write buffer
+            for (int i = 0; i < StudentServer.MAX_BACKLOG; i++) {
+                assertTrue(codec.read(in, reply));
+                assertEquals(HandshakeCodec.TYPE_BACKLOG_RECORD, reply.mType);
+                assertEquals("i42", reply.mId);
+                assertEquals(i, reply.mNonce);
+                assertEquals(1000L * i, reply.mTimestamp);
+            }
+            assertTrue(codec.read(in, reply));
+            assertEquals(HandshakeCodec.TYPE_BACKLOG_END, reply.mType);
+            assertEquals(StudentServer.MAX_BACKLOG, reply.mNonce);
+
+            codec.writeFrame(out, HandshakeCodec.TYPE_CONFIRM, "i42", 3, 0);
+            codec.writeFrame(out, HandshakeCodec.TYPE_BYE, "i42", 0, 0);
+            out.flush();
+            assertFalse(codec.read(in, reply));
+        } finally {
+            socket.close();
+        }
+
+        assertEquals("i42:5", nextReport());
+        assertEquals("confirm:i42:5", nextReport());
+        assertEquals("metadata:i42:session=1", nextReport());
+        assertEquals("backlog:i42:" + StudentServer.MAX_BACKLOG, nextReport());
+        assertEquals("confirm:i42:3", nextReport());
+        assertNull(mReports.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void session_endOfStreamIsNotAFailure() throws Exception {
+        exchange(true, "i42", 1);
+        assertEquals("i42:1", nextReport());
+        awaitNoConnections();
+        assertNull(mReports.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void messageSplitAcrossWrites_isReassembled() throws Exception {
+        Socket socket = connect();
+        try {
+            OutputStream out = socket.getOutputStream();
+            byte[] line = "Instructor:i42:7\n".getBytes("UTF-8");
+            for (byte b : line) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(2);
+            }
+            HandshakeCodec.Message reply = new HandshakeCodec.Message();
+            assertTrue(new HandshakeCodec().read(socket.getInputStream(), reply));
+            assertEquals("z1234567", reply.mId);
+        } finally {
+            socket.close();
+        }
+        assertEquals("i42:7", nextReport());
+    }
+
+    @Test
+    public void silentConnection_isClosedAtTheDeadline() throws Exception {
+        Socket socket = connect();
+        try {
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read());
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            assertTrue("Closed after " + elapsedMillis + " ms", elapsedMillis >= READ_TIMEOUT_MS / 2);
+        } finally {
+            socket.close();
+        }
+        assertEquals("failed:Timed out", nextReport());
+        assertEquals(0, mServer.getOpenConnections());
+    }
+
+    @Test
+    public void garbage_failsOnlyThatConnection() throws Exception {
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write("Hello:world\n".getBytes("UTF-8"));
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+        assertTrue(nextReport().startsWith("failed:"));
+
+        exchange(true, "i42", 1);
+        assertEquals("i42:1", nextReport());
+    }
+
+    @Test
+    public void manyConnections_areServedWithoutMoreThreadsOrSessions() throws Exception {
+        int threadsBefore = Thread.activeCount();
+
+        // Hold more idle connections open than there are slots, then talk on all of them
+        int count = StudentServer.MAX_CONNECTIONS * 3;
+        List<Socket> sockets = new ArrayList<>();
+        HandshakeCodec codec = new HandshakeCodec();
+        try {
+            for (int i = 0; i < count; i++) sockets.add(connect());
+            Thread.sleep(50);
+            assertTrue(mServer.getOpenConnections() <= StudentServer.MAX_CONNECTIONS);
+            assertEquals(threadsBefore, Thread.activeCount());
+
+            for (int i = 0; i < count; i++) {
+                codec.write(sockets.get(i).getOutputStream(), true, HandshakeCodec.TYPE_INSTRUCTOR, "i" + i, i);
+            }
+            HandshakeCodec.Message reply = new HandshakeCodec.Message();
+            for (int i = 0; i < count; i++) {
+                // Hang up after the reply, as an instructor without sessions would
+                InputStream in = sockets.get(i).getInputStream();
+                assertTrue(codec.read(in, reply));
+                assertEquals(i, reply.mNonce);
+                sockets.get(i).close();
+            }
+        } finally {
+            for (Socket socket : sockets) socket.close();
+        }
+
+        for (int i = 0; i < count; i++) assertFalse(nextReport().startsWith("failed:"));
+        awaitNoConnections();
+    }
+}
@@ -0,0 +1,104 @@
+package au.edu.unsw.eet.attendance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+
+    /**
+     * Records every batch it is given
+     */
+    static class RecordingSink implements WriteBehindQueue.Sink<Integer> {
+        final List<List<Integer>> mBatches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+        @Override
+        public void write(List<Integer> batch) {
+            mBatches.add(new ArrayList<Integer>(batch));
+        }
+
+        int total() {
+            int total = 0;
+            synchronized (mBatches) {
+                for (List<Integer> batch : mBatches) total += batch.size();
+            }
+            return total;
+        }
+    }
+
+    @Test
+    public void fullBatch_isWrittenWithoutWaitingForDelay() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(sink, 4, 60 * 1000);
+        queue.start();
+
+        for (int i = 0; i < 4; i++) queue.enqueue(i);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.total() < 4 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+        assertEquals(1, sink.mBatches.size());
+        assertEquals(4, sink.mBatches.get(0).size());
+
+        queue.close();
+    }
+
+    @Test
+    public void partialBatch_isWrittenAfterDelay() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(sink, 100, 50);
+        queue.start();
+
+        queue.enqueue(1);
+        queue.enqueue(2);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.total() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+        assertEquals(2, sink.total());
+
+        queue.close();
+    }
+
+    @Test
+    public void close_writesEverythingQueued() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(sink, 16, 60 * 1000);
+        queue.start();
+
+        for (int i = 0; i < 1000; i++) queue.enqueue(i);
+        queue.close();
+
+        assertEquals(1000, sink.total());
+        for (List<Integer> batch : sink.mBatches) {
+            assertTrue(batch.size() <= 16);
+        }
+        assertFalse(queue.isAlive());
+    }
+
+    @Test
+    public void close_withoutStart_writesEverythingQueued() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(sink, 16, 60 * 1000);
+
+        for (int i = 0; i < 20; i++) queue.enqueue(i);
+        queue.close();
+
+        assertEquals(20, sink.total());
+    }
+
+    @Test
+    public void enqueue_afterClose_isRejected() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(sink, 16, 50);
+        queue.start();
+        queue.close();
+
+        assertFalse(queue.enqueue(1));
+        assertEquals(0, sink.total());
+    }
+}
@@ -0,0 +1,71 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of posting and delivering one AttendanceEvent, which replaces building, broadcasting and
+ * unpacking an Intent per message. Each invocation is one frame of PER_FRAME events, delivered
+ * together to a single subscriber.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(AttendanceEventBusBenchmark.PER_FRAME)
+public class AttendanceEventBusBenchmark {
+    static final int PER_FRAME = 20;
+
+    /**
+     * Holds the one scheduled delivery until the benchmark runs it, standing in for the main thread
+     */
+    static class ManualScheduler implements AttendanceEventBus.Scheduler {
+        Runnable mTask;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mTask = task;
+        }
+
+        void run() {
+            Runnable task = mTask;
+            mTask = null;
+            task.run();
+        }
+    }
+
+    ManualScheduler mScheduler;
+    AttendanceEventBus mBus;
+    AttendanceEvent mEvent;
+    Blackhole mBlackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mBlackhole = blackhole;
+        mScheduler = new ManualScheduler();
+        mBus = new AttendanceEventBus(mScheduler, AttendanceEventBus.FRAME_INTERVAL_MS);
+        mBus.subscribe(new AttendanceEventBus.Subscriber() {
+            @Override
+            public void onAttendanceEvents(List<AttendanceEvent> events) {
+                for (AttendanceEvent event : events) mBlackhole.consume(event);
+            }
+        });
+        mEvent = new AttendanceEvent(AttendanceEvent.Phase.RECORDED, "instructor", "student", 0,
+                System.currentTimeMillis(), AttendanceDatabase.STUDENT_TABLE, 0);
+    }
+
+    @Benchmark
+    public void postAndDeliver() {
+        for (int i = 0; i < PER_FRAME; i++) mBus.post(mEvent);
+        mScheduler.run();
+    }
+}
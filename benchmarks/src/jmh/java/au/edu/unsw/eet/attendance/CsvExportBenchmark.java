@@ -0,0 +1,105 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CsvExporter writing an attendance history, per row. Rows come from memory and the output is
+ * discarded, so the score is the cost of formatting, encoding and compressing alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(CsvExportBenchmark.ROWS)
+public class CsvExportBenchmark {
+    static final int ROWS = 10000;
+
+    @Param({"false", "true"})
+    boolean mGzip;
+
+    /**
+     * Columns of the instructor's export: instructor ID, student ID and timestamp
+     */
+    String[][] mHistory;
+
+    /**
+     * Counts and drops everything written to it
+     */
+    static class NullChannel implements WritableByteChannel {
+        long mWritten;
+        boolean mOpen = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            mWritten += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mOpen;
+        }
+
+        @Override
+        public void close() {
+            mOpen = false;
+        }
+    }
+
+    class HistoryRows implements CsvExporter.Rows {
+        int mRow = -1;
+
+        @Override
+        public int getCount() {
+            return ROWS;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 3;
+        }
+
+        @Override
+        public boolean next() {
+            return ++mRow < ROWS;
+        }
+
+        @Override
+        public String get(int column) {
+            return mHistory[mRow][column];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mHistory = new String[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            // One student in fifty has a name that needs quoting
+            String studentId = i % 50 == 0 ? "O'Brien, \"Pat\"" : "z" + (5000000 + i);
+            mHistory[i] = new String[]{"ABCD1234", studentId,
+                    String.format(Locale.US, "2016-10-%02d %02d:%02d:00", 1 + i / 1440 % 28, i / 60 % 24, i % 60)};
+        }
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        NullChannel channel = new NullChannel();
+        new CsvExporter().export(new HistoryRows(), channel, mGzip, null);
+        return channel.mWritten;
+    }
+}
@@ -0,0 +1,76 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and parsing of a student's handshake message, as text lines and as binary frames,
+ * through the stream API used by InstructorHandshake and the buffer API used by StudentServer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandshakeCodecBenchmark {
+    static final String STUDENT_ID = "z1234567";
+    static final int NONCE = 123456;
+
+    @Param({"false", "true"})
+    boolean mBinary;
+
+    final HandshakeCodec mCodec = new HandshakeCodec();
+    final HandshakeCodec.Message mMessage = new HandshakeCodec.Message();
+    final ByteArrayOutputStream mOut = new ByteArrayOutputStream(HandshakeCodec.MAX_MESSAGE_SIZE);
+    final ByteBuffer mBuffer = ByteBuffer.allocate(HandshakeCodec.MAX_MESSAGE_SIZE);
+
+    /**
+     * The encoded message, as received
+     */
+    byte[] mEncoded;
+    ByteBuffer mEncodedBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        mCodec.write(mOut, mBinary, HandshakeCodec.TYPE_STUDENT, STUDENT_ID, NONCE);
+        mEncoded = mOut.toByteArray();
+        mEncodedBuffer = ByteBuffer.wrap(mEncoded);
+    }
+
+    @Benchmark
+    public int encodeStream() throws IOException {
+        mOut.reset();
+        mCodec.write(mOut, mBinary, HandshakeCodec.TYPE_STUDENT, STUDENT_ID, NONCE);
+        return mOut.size();
+    }
+
+    @Benchmark
+    public int encodeBuffer() throws IOException {
+        mBuffer.clear();
+        mCodec.write(mBuffer, mBinary, HandshakeCodec.TYPE_STUDENT, STUDENT_ID, NONCE);
+        return mBuffer.position();
+    }
+
+    @Benchmark
+    public String parseStream() throws IOException {
+        mCodec.read(new ByteArrayInputStream(mEncoded), mMessage);
+        return mMessage.mId;
+    }
+
+    @Benchmark
+    public String parseBuffer() throws IOException {
+        mEncodedBuffer.clear();
+        mCodec.read(mEncodedBuffer, mMessage);
+        return mMessage.mId;
+    }
+}
@@ -0,0 +1,98 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The history query run by MainActivity, reading every row of one class, before and after the
+ * version 2 indexes on an instructor_attendance table shared by CLASSES classes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryQueryBenchmark {
+    static final int CLASSES = 50;
+
+    static final String HISTORY_QUERY = "SELECT * FROM instructor_attendance " +
+            "WHERE instructor_id = ? ORDER BY ROWID DESC;";
+
+    @Param({"10000", "100000", "1000000"})
+    int mRows;
+
+    @Param({"false", "true"})
+    boolean mIndexed;
+
+    Connection mConnection;
+    PreparedStatement mQuery;
+    int mNext;
+
+    @Setup
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = mConnection.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        populate();
+        if (mIndexed) statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+        statement.close();
+
+        mQuery = mConnection.prepareStatement(HISTORY_QUERY);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        mQuery.close();
+        mConnection.close();
+    }
+
+    @Benchmark
+    public int historyQuery() throws SQLException {
+        mQuery.setString(1, "CLASS" + (mNext++ % CLASSES));
+
+        ResultSet resultSet = mQuery.executeQuery();
+        int rows = 0;
+        while (resultSet.next()) {
+            resultSet.getString("instructor_id");
+            resultSet.getString("student_id");
+            resultSet.getString("timestamp");
+            rows++;
+        }
+        resultSet.close();
+
+        if (rows != mRows / CLASSES) throw new IllegalStateException("Read " + rows + " rows");
+        return rows;
+    }
+
+    private void populate() throws SQLException {
+        mConnection.setAutoCommit(false);
+        PreparedStatement insert = mConnection.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+        long now = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < mRows; i++) {
+            insert.setString(1, "CLASS" + (i % CLASSES));
+            insert.setString(2, "device" + i);
+            insert.setString(3, "z" + i);
+            insert.setInt(4, i);
+            insert.setLong(5, now);
+            insert.executeUpdate();
+        }
+        insert.close();
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+    }
+}
@@ -0,0 +1,109 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of inserting one attendance record through sqlite-jdbc: the old String.format() +
+ * execSQL() path, the precompiled statement re-bound for every record, and the same statement
+ * with AttendanceWriter's group commit of WRITE_BATCH_SIZE records.
+ * <p> The database is in memory, so these measure statement and transaction overhead rather than
+ * the flash storage of a device, and is recreated every iteration so that the table does not grow
+ * without bound. </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(InsertBenchmark.RECORDS)
+public class InsertBenchmark {
+    static final int RECORDS = 256;
+    static final int BATCH_SIZE = InstructorService.WRITE_BATCH_SIZE;
+
+    Connection mConnection;
+    Statement mStatement;
+    PreparedStatement mInsert;
+    int mNext;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        mStatement = mConnection.createStatement();
+        mStatement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        mStatement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+        mInsert = mConnection.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException {
+        mInsert.close();
+        mStatement.close();
+        mConnection.close();
+    }
+
+    /**
+     * The insert path used before statements were precompiled, writing the same timestamp as the
+     * bound statement so that both do the same work
+     */
+    @Benchmark
+    public void formatAndExecute() throws SQLException {
+        for (int i = 0; i < RECORDS; i++, mNext++) {
+            mStatement.execute(String.format(
+                    "INSERT INTO instructor_attendance " +
+                            "(instructor_id, student_device, student_id, rand, timestamp) " +
+                            "VALUES('%s', '%s', '%s', %d, datetime(%d, 'unixepoch'));",
+                    "ABCD1234",
+                    "device" + mNext,
+                    "z" + mNext,
+                    mNext,
+                    System.currentTimeMillis() / 1000));
+        }
+    }
+
+    @Benchmark
+    public void prepared() throws SQLException {
+        for (int i = 0; i < RECORDS; i++, mNext++) {
+            bindRecord(mNext);
+            mInsert.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public void preparedBatched() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < RECORDS; i++, mNext++) {
+                bindRecord(mNext);
+                mInsert.executeUpdate();
+                if ((i + 1) % BATCH_SIZE == 0) mConnection.commit();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private void bindRecord(int i) throws SQLException {
+        mInsert.setString(1, "ABCD1234");
+        mInsert.setString(2, "device" + i);
+        mInsert.setString(3, "z" + i);
+        mInsert.setInt(4, i);
+        mInsert.setLong(5, System.currentTimeMillis() / 1000);
+    }
+}
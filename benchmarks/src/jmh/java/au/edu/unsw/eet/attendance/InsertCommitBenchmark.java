@@ -0,0 +1,90 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of inserting one attendance record into a database file, committing every record on its
+ * own against AttendanceWriter's group commit of WRITE_BATCH_SIZE records. Unlike InsertBenchmark
+ * this includes the sync of each commit, which dominates on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(InsertCommitBenchmark.RECORDS)
+public class InsertCommitBenchmark {
+    static final int BATCH_SIZE = InstructorService.WRITE_BATCH_SIZE;
+    static final int RECORDS = BATCH_SIZE;
+
+    File mFile;
+    Connection mConnection;
+    PreparedStatement mInsert;
+    int mNext;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mFile = File.createTempFile("attendance", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+
+        Statement statement = mConnection.createStatement();
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_TABLE);
+        statement.execute(AttendanceDatabase.CREATE_INSTRUCTOR_HISTORY_INDEX);
+        statement.close();
+        mInsert = mConnection.prepareStatement(AttendanceDatabase.INSERT_INSTRUCTOR_ATTENDANCE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException, IOException {
+        mInsert.close();
+        mConnection.close();
+        if (!mFile.delete()) throw new IOException("Could not delete " + mFile);
+    }
+
+    @Benchmark
+    public void autoCommit() throws SQLException {
+        for (int i = 0; i < RECORDS; i++, mNext++) {
+            bindRecord(mNext);
+            mInsert.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public void batched() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < RECORDS; i++, mNext++) {
+                bindRecord(mNext);
+                mInsert.executeUpdate();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private void bindRecord(int i) throws SQLException {
+        mInsert.setString(1, "ABCD1234");
+        mInsert.setString(2, "device" + i);
+        mInsert.setString(3, "z" + i);
+        mInsert.setInt(4, i);
+        mInsert.setLong(5, System.currentTimeMillis() / 1000);
+    }
+}
@@ -0,0 +1,33 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of timing and recording one registration phase, the overhead RegistrationMetrics adds to
+ * every handshake. recordContended records into the same histogram from four threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegistrationMetricsBenchmark {
+    final RegistrationMetrics mMetrics = new RegistrationMetrics();
+
+    @Benchmark
+    public void record() {
+        mMetrics.record(RegistrationMetrics.Phase.EXCHANGE, RegistrationMetrics.start());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        mMetrics.record(RegistrationMetrics.Phase.EXCHANGE, RegistrationMetrics.start());
+    }
+}
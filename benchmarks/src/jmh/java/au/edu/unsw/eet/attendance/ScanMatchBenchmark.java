@@ -0,0 +1,68 @@
+package au.edu.unsw.eet.attendance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching the SSIDs of one Wi-Fi scan to discovered student devices, as InstructorService's
+ * mWifiScanReceiver does for every SCAN_RESULTS_AVAILABLE_ACTION
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScanMatchBenchmark {
+
+    /**
+     * Networks in range that are not student devices, such as the campus network
+     */
+    static final int OTHER_NETWORKS = 20;
+
+    @Param({"30", "300"})
+    int mStudents;
+
+    final DiscoveryRecords mRecords = new DiscoveryRecords();
+    final List<String> mScan = new ArrayList<>();
+    long mNow;
+
+    @Setup
+    public void setUp() {
+        mNow = System.currentTimeMillis();
+        for (int i = 0; i < mStudents; i++) {
+            HashMap<String, String> record = new HashMap<>();
+            record.put(P2pService.RECORD_SSID, String.format(Locale.US, "DIRECT-%02x-Android_%04x", i & 0xff, i));
+            record.put(P2pService.RECORD_PRESHARED_KEY, "passphrase" + i);
+            record.put(P2pService.RECORD_SERVER_PORT, "8888");
+            record.put(P2pService.RECORD_SERVER_ADDRESS, "192.168.49.1");
+            record.put(P2pService.RECORD_PROTOCOL, String.valueOf(HandshakeCodec.SESSION_PROTOCOL));
+            mRecords.put(String.format(Locale.US, "02:00:00:00:%02x:%02x", (i >> 8) & 0xff, i & 0xff), record, mNow);
+            mScan.add(record.get(P2pService.RECORD_SSID));
+        }
+        for (int i = 0; i < OTHER_NETWORKS; i++) mScan.add("uniwide-" + i);
+        Collections.shuffle(mScan, new Random(1));
+    }
+
+    @Benchmark
+    public int matchScan() {
+        mRecords.evictExpired(mNow);
+
+        int matched = 0;
+        for (String ssid : mScan) {
+            if (mRecords.findDeviceBySsid(ssid, mNow) != null) matched++;
+        }
+        return matched;
+    }
+}